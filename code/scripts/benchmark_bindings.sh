@@ -0,0 +1,5 @@
+#!/bin/bash
+
+# Compare SOAP and JSON API latency on a running store, e.g. ./scripts/benchmark_bindings.sh --store QC --calls 20000
+cd "$(dirname "$0")/.."
+java -cp build/classes client.BindingBenchmark "$@"
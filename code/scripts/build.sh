@@ -22,6 +22,11 @@ START_DIR=$(pwd)
 # Create build directory
 mkdir -p build/classes
 
+# Copy bundled resources (the client WSDL) next to the classes
+if [ -d "src/main/resources" ]; then
+    cp -r src/main/resources/. build/classes/
+fi
+
 # Step 1: Compile main source files (excluding generated client stubs for now)
 echo "Step 1: Compiling Java source files..."
 cd "$START_DIR"
@@ -60,14 +65,14 @@ if [ -d "src/main/java/client/generated" ]; then
         javac -d build/classes -cp build/classes -sourcepath src/main/java @sources.txt
         if [ $? -ne 0 ]; then
             echo "WARNING: Client stub compilation failed!"
-            echo "You may need to regenerate client stubs after starting servers."
+            echo "You may need to regenerate client stubs with ./scripts/generate_client_stubs.sh"
         else
             echo "Client stub compilation successful!"
         fi
     fi
     rm sources.txt
 else
-    echo "Step 2: No client stubs found (run generate_client_stubs.sh after starting servers)"
+    echo "Step 2: No client stubs found (run ./scripts/generate_client_stubs.sh)"
 fi
 
 # Step 3: Compile client applications
@@ -89,5 +94,7 @@ echo "Build complete!"
 echo ""
 echo "Next steps:"
 echo "1. Start servers: ./scripts/start_webservice_servers.sh"
-echo "2. Generate client stubs: ./scripts/generate_client_stubs.sh"
-echo "3. Rebuild to compile client applications with stubs"
+echo "2. Run a client: ./scripts/run_customer_client.sh or ./scripts/run_manager_client.sh"
+echo ""
+echo "After changing the service WSDL, regenerate the client stubs with"
+echo "./scripts/generate_client_stubs.sh and rebuild."
@@ -0,0 +1,5 @@
+#!/bin/bash
+
+# Decode a binary audit journal, e.g. ./scripts/decode_journal.sh QC_server --customer QCU1111 --text
+cd "$(dirname "$0")/.."
+java -cp build/classes utils.JournalDecoder "$@"
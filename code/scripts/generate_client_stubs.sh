@@ -0,0 +1,31 @@
+#!/bin/bash
+
+# Regenerates the client stubs in src/main/java/client/generated from the bundled WSDL.
+# The stubs load the WSDL from the classpath (-wsdllocation), so clients start without a server
+# running; StorePorts points each proxy at its store's address.
+cd "$(dirname "$0")/.."
+
+# wsimport ships with Java 8 only
+JAVA_VERSION=$(java -version 2>&1 | head -n 1 | cut -d'"' -f2 | cut -d'.' -f1-2)
+if [ "$JAVA_VERSION" != "1.8" ]; then
+    echo "ERROR: Java 8 is required but Java $JAVA_VERSION is active"
+    exit 1
+fi
+
+WSDL=src/main/resources/wsdl/StoreServerService.wsdl
+
+for STORE in qc on bc; do
+    echo "Generating client stubs for $STORE..."
+    rm -rf "src/main/java/client/generated/$STORE"
+    wsimport -keep -Xnocompile \
+        -p "client.generated.$STORE" \
+        -wsdllocation /wsdl/StoreServerService.wsdl \
+        -d src/main/java \
+        "$WSDL"
+    if [ $? -ne 0 ]; then
+        echo "ERROR: wsimport failed for $STORE"
+        exit 1
+    fi
+done
+
+echo "Client stubs generated. Rebuild with ./scripts/build.sh"
@@ -0,0 +1,5 @@
+#!/bin/bash
+
+# Replay logged operations against the running servers, e.g. ./scripts/replay_load.sh QC_server.log --speedup 10
+cd "$(dirname "$0")/.."
+java -cp build/classes client.LoadReplayer "$@"
@@ -0,0 +1,14 @@
+#!/bin/bash
+
+# Script to start the stores in a single JVM, e.g. ./scripts/start_store_host.sh QC ON BC
+cd "$(dirname "$0")/.."
+
+echo "Starting DSMS stores in one process..."
+java -cp build/classes startup.StartStoreHost "$@" &
+HOST_PID=$!
+echo $HOST_PID > /tmp/store_host.pid
+
+echo "Store host PID: $HOST_PID"
+echo "Use ./scripts/stop_servers.sh to stop it"
+
+wait
@@ -21,9 +21,16 @@ if [ -f /tmp/bc_server.pid ]; then
     echo "BC Server stopped"
 fi
 
+if [ -f /tmp/store_host.pid ]; then
+    kill $(cat /tmp/store_host.pid) 2>/dev/null
+    rm /tmp/store_host.pid
+    echo "Store host stopped"
+fi
+
 # Kill any remaining Java server processes
 pkill -f "StartQCServer"
 pkill -f "StartONServer"
 pkill -f "StartBCServer"
+pkill -f "StartStoreHost"
 
 echo "All web service servers stopped"
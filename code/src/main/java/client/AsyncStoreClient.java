@@ -0,0 +1,108 @@
+package client;
+
+import interfaces.StoreServer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+//Asynchronous variants of the StoreServer operations. Each call returns a CompletableFuture at once; wait on it,
+//chain on it or attach a callback with whenComplete. The SOAP transport blocks while a call is on the wire, so
+//calls are carried out by a fixed set of worker threads and any beyond that wait in the queue: a client can
+//submit thousands of calls while only the worker count of them hold a thread and a connection.
+//Works over any StoreServer, e.g. AsyncStoreClient.forStore("QC", 16) or new AsyncStoreClient(new JsonStoreClient(url), 16).
+public class AsyncStoreClient implements AutoCloseable {
+    private final StoreServer server;
+    private final ExecutorService workers;
+    private final boolean ownsWorkers;
+
+    public AsyncStoreClient(StoreServer server, int threads) {
+        this(server, newWorkers(threads), true);
+    }
+
+    //Runs calls on the caller's executor, which the client does not shut down
+    public AsyncStoreClient(StoreServer server, ExecutorService workers) {
+        this(server, workers, false);
+    }
+
+    private AsyncStoreClient(StoreServer server, ExecutorService workers, boolean ownsWorkers) {
+        this.server = server;
+        this.workers = workers;
+        this.ownsWorkers = ownsWorkers;
+    }
+
+    //A client over the shared SOAP proxy of a store
+    public static AsyncStoreClient forStore(String storePrefix, int threads) {
+        String address = StorePorts.addressOf(storePrefix);
+        if (address == null) {
+            throw new IllegalArgumentException("Unknown store prefix: " + storePrefix);
+        }
+        return new AsyncStoreClient(StorePorts.at(address), threads);
+    }
+
+    public CompletableFuture<String> addItemAsync(String managerID, String itemID, String itemName, int quantity, double price) {
+        return submit(() -> server.addItem(managerID, itemID, itemName, quantity, price));
+    }
+
+    public CompletableFuture<String> removeItemAsync(String managerID, String itemID, int quantity) {
+        return submit(() -> server.removeItem(managerID, itemID, quantity));
+    }
+
+    public CompletableFuture<String> addItemsAsync(String managerID, String items) {
+        return submit(() -> server.addItems(managerID, items));
+    }
+
+    public CompletableFuture<String> removeItemsAsync(String managerID, String items) {
+        return submit(() -> server.removeItems(managerID, items));
+    }
+
+    public CompletableFuture<String> listItemAvailabilityAsync(String managerID) {
+        return submit(() -> server.listItemAvailability(managerID));
+    }
+
+    public CompletableFuture<String> purchaseItemAsync(String customerID, String itemID, int quantity, String dateOfPurchase) {
+        return submit(() -> server.purchaseItem(customerID, itemID, quantity, dateOfPurchase));
+    }
+
+    public CompletableFuture<String> purchaseItemsAsync(String customerID, String items, String dateOfPurchase) {
+        return submit(() -> server.purchaseItems(customerID, items, dateOfPurchase));
+    }
+
+    public CompletableFuture<String> findItemAsync(String customerID, String itemName) {
+        return submit(() -> server.findItem(customerID, itemName));
+    }
+
+    public CompletableFuture<String> returnItemAsync(String customerID, String itemID, String dateOfReturn) {
+        return submit(() -> server.returnItem(customerID, itemID, dateOfReturn));
+    }
+
+    public CompletableFuture<String> exchangeItemAsync(String customerID, String newItemID, String oldItemID) {
+        return submit(() -> server.exchangeItem(customerID, newItemID, oldItemID));
+    }
+
+    public CompletableFuture<String> addToWaitlistAsync(String customerID, String itemID) {
+        return submit(() -> server.addToWaitlist(customerID, itemID));
+    }
+
+    //Lets queued calls finish, then stops the worker threads if this client created them
+    @Override
+    public void close() {
+        if (ownsWorkers) {
+            workers.shutdown();
+        }
+    }
+
+    private CompletableFuture<String> submit(Supplier<String> call) {
+        return CompletableFuture.supplyAsync(call, workers);
+    }
+
+    private static ExecutorService newWorkers(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "store-client-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+}
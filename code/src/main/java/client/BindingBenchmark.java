@@ -0,0 +1,99 @@
+package client;
+
+import interfaces.StoreServer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+//Compares the SOAP and plain HTTP bindings of one running store on read-only calls (findItem and
+//listItemAvailability), so it is safe to point at a live cluster.
+//Usage: BindingBenchmark [--store QC] [--soap http://localhost:8080/QCServer] [--json http://localhost:8180]
+//                        [--calls 20000] [--threads 8] [--warmup 2000]
+public class BindingBenchmark {
+    public static void main(String[] args) throws Exception {
+        String store = "QC";
+        String soapUrl = null;
+        String jsonUrl = null;
+        int calls = 20000;
+        int threads = 8;
+        int warmup = 2000;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--store": store = args[++i]; break;
+                case "--soap": soapUrl = args[++i]; break;
+                case "--json": jsonUrl = args[++i]; break;
+                case "--calls": calls = Integer.parseInt(args[++i]); break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+            }
+        }
+        int port = store.equals("ON") ? 8081 : store.equals("BC") ? 8082 : 8080;
+        if (soapUrl == null) {
+            soapUrl = "http://localhost:" + port + "/" + store + "Server";
+        }
+        if (jsonUrl == null) {
+            jsonUrl = "http://localhost:" + (port + 100);
+        }
+
+        String customerID = store + "U1111";
+        String managerID = store + "M1111";
+        Map<String, Function<StoreServer, String>> operations = new LinkedHashMap<>();
+        operations.put("findItem", s -> s.findItem(customerID, "Coffee"));
+        operations.put("listItemAvailability", s -> s.listItemAvailability(managerID));
+
+        Map<String, StoreServer> bindings = new LinkedHashMap<>();
+        bindings.put("SOAP", StorePorts.at(soapUrl));
+        bindings.put("JSON", new JsonStoreClient(jsonUrl));
+
+        System.out.printf("%-6s %-22s %8s %10s %9s %9s %9s%n", "bind", "operation", "calls", "ops/s", "p50 ms", "p99 ms", "max ms");
+        for (Map.Entry<String, StoreServer> binding : bindings.entrySet()) {
+            for (Map.Entry<String, Function<StoreServer, String>> operation : operations.entrySet()) {
+                run(binding.getValue(), operation.getValue(), warmup, threads);
+                long start = System.nanoTime();
+                long[] latencies = run(binding.getValue(), operation.getValue(), calls, threads);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                Arrays.sort(latencies);
+                System.out.printf("%-6s %-22s %8d %10.1f %9.3f %9.3f %9.3f%n", binding.getKey(), operation.getKey(),
+                                  calls, calls / seconds, percentile(latencies, 0.50), percentile(latencies, 0.99),
+                                  latencies[latencies.length - 1] / 1e6);
+            }
+        }
+    }
+
+    //Splits the calls over the threads and returns every call's latency in nanoseconds
+    private static long[] run(StoreServer server, Function<StoreServer, String> operation, int calls, int threads)
+            throws InterruptedException, ExecutionException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<long[]>> parts = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int share = calls / threads + (t < calls % threads ? 1 : 0);
+            parts.add(pool.submit(() -> {
+                long[] latencies = new long[share];
+                for (int i = 0; i < share; i++) {
+                    long begin = System.nanoTime();
+                    operation.apply(server);
+                    latencies[i] = System.nanoTime() - begin;
+                }
+                return latencies;
+            }));
+        }
+        long[] all = new long[calls];
+        int filled = 0;
+        for (Future<long[]> part : parts) {
+            long[] latencies = part.get();
+            System.arraycopy(latencies, 0, all, filled, latencies.length);
+            filled += latencies.length;
+        }
+        pool.shutdown();
+        return all;
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
@@ -1,6 +1,6 @@
 package client;
 
-import java.net.URL;
+import interfaces.StoreServer;
 import java.util.Scanner;
 import utils.DSMSLogger;
 
@@ -18,7 +18,7 @@ public class CustomerClient {
         try {
             //Determine store prefix and connect to appropriate web service
             String storePrefix = customerID.substring(0, 2).toUpperCase();
-            Object server = connectToWebService(storePrefix);
+            StoreServer server = connectToWebService(storePrefix);
             
             if (server == null) {
                 System.err.println("ERROR: Could not connect to " + storePrefix + " server");
@@ -34,25 +34,29 @@ public class CustomerClient {
                 System.out.println("2. Find Item");
                 System.out.println("3. Return Item");
                 System.out.println("4. Exchange Item");
-                System.out.println("5. Exit");
+                System.out.println("5. Checkout Cart");
+                System.out.println("6. Exit");
                 System.out.print("Choose option: ");
                 
                 String choice = scanner.nextLine().trim();
                 
                 switch (choice) {
                     case "1":
-                        purchaseItem(server, storePrefix, customerID, scanner);
+                        purchaseItem(server, customerID, scanner);
                         break;
                     case "2":
-                        findItem(server, storePrefix, customerID, scanner);
+                        findItem(server, customerID, scanner);
                         break;
                     case "3":
-                        returnItem(server, storePrefix, customerID, scanner);
+                        returnItem(server, customerID, scanner);
                         break;
                     case "4":
-                        exchangeItem(server, storePrefix, customerID, scanner);
+                        exchangeItem(server, customerID, scanner);
                         break;
                     case "5":
+                        checkoutCart(server, customerID, scanner);
+                        break;
+                    case "6":
                         exit = true;
                         break;
                     default:
@@ -68,26 +72,14 @@ public class CustomerClient {
         scanner.close();
     }
     
-    private static Object connectToWebService(String storePrefix) {
+    private static StoreServer connectToWebService(String storePrefix) {
         try {
-            String wsdlUrl;
-            switch (storePrefix) {
-                case "QC":
-                    wsdlUrl = "http://localhost:8080/QCServer?wsdl";
-                    client.generated.qc.StoreServerService qcService = new client.generated.qc.StoreServerService(new URL(wsdlUrl));
-                    return qcService.getStoreServerImplPort();
-                case "ON":
-                    wsdlUrl = "http://localhost:8081/ONServer?wsdl";
-                    client.generated.on.StoreServerService onService = new client.generated.on.StoreServerService(new URL(wsdlUrl));
-                    return onService.getStoreServerImplPort();
-                case "BC":
-                    wsdlUrl = "http://localhost:8082/BCServer?wsdl";
-                    client.generated.bc.StoreServerService bcService = new client.generated.bc.StoreServerService(new URL(wsdlUrl));
-                    return bcService.getStoreServerImplPort();
-                default:
-                    System.err.println("Unknown store prefix: " + storePrefix);
-                    return null;
+            StoreClient stores = new StoreClient();
+            if (!stores.hasStore(storePrefix)) {
+                System.err.println("Unknown store prefix: " + storePrefix);
+                return null;
             }
+            return stores;
         } catch (Exception e) {
             System.err.println("Error connecting to web service: " + e.getMessage());
             e.printStackTrace();
@@ -95,7 +87,7 @@ public class CustomerClient {
         }
     }
     
-    private static void purchaseItem(Object serverObj, String storePrefix, String customerID, Scanner scanner) {
+    private static void purchaseItem(StoreServer server, String customerID, Scanner scanner) {
         try {
             System.out.print("Item ID: ");
             String itemID = scanner.nextLine().trim();
@@ -104,20 +96,7 @@ public class CustomerClient {
             System.out.print("Date (ddmmyyyy): ");
             String date = scanner.nextLine().trim();
             
-            String result;
-            switch (storePrefix) {
-                case "QC":
-                    result = ((client.generated.qc.StoreServer)serverObj).purchaseItem(customerID, itemID, quantity, date);
-                    break;
-                case "ON":
-                    result = ((client.generated.on.StoreServer)serverObj).purchaseItem(customerID, itemID, quantity, date);
-                    break;
-                case "BC":
-                    result = ((client.generated.bc.StoreServer)serverObj).purchaseItem(customerID, itemID, quantity, date);
-                    break;
-                default:
-                    result = "Error: Unknown store";
-            }
+            String result = server.purchaseItem(customerID, itemID, quantity, date);
             
             if (result.startsWith("WAITLIST_PROMPT")) {
                 itemID = result.split(",")[1];
@@ -125,20 +104,7 @@ public class CustomerClient {
                 String choice = scanner.nextLine().trim().toLowerCase();
                 
                 if (choice.equals("y") || choice.equals("yes")) {
-                    String waitlistResult;
-                    switch (storePrefix) {
-                        case "QC":
-                            waitlistResult = ((client.generated.qc.StoreServer)serverObj).addToWaitlist(customerID, itemID);
-                            break;
-                        case "ON":
-                            waitlistResult = ((client.generated.on.StoreServer)serverObj).addToWaitlist(customerID, itemID);
-                            break;
-                        case "BC":
-                            waitlistResult = ((client.generated.bc.StoreServer)serverObj).addToWaitlist(customerID, itemID);
-                            break;
-                        default:
-                            waitlistResult = "Error: Unknown store";
-                    }
+                    String waitlistResult = server.addToWaitlist(customerID, itemID);
                     System.out.println(waitlistResult);
                     clientLogger.logOperation("WAITLIST", customerID, itemID, waitlistResult);
                 } else {
@@ -155,25 +121,30 @@ public class CustomerClient {
         }
     }
     
-    private static void findItem(Object serverObj, String storePrefix, String customerID, Scanner scanner) {
+    private static void checkoutCart(StoreServer server, String customerID, Scanner scanner) {
+        try {
+            System.out.print("Items (itemID,quantity;...): ");
+            String items = scanner.nextLine().trim();
+            System.out.print("Date (ddmmyyyy): ");
+            String date = scanner.nextLine().trim();
+            
+            String result = server.purchaseItems(customerID, items, date);
+            
+            System.out.println(result);
+            clientLogger.logOperation("PURCHASE_CART", customerID, items + "," + date, result);
+            
+        } catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    private static void findItem(StoreServer server, String customerID, Scanner scanner) {
         try {
             System.out.print("Item Name: ");
             String itemName = scanner.nextLine().trim();
             
-            String result;
-            switch (storePrefix) {
-                case "QC":
-                    result = ((client.generated.qc.StoreServer)serverObj).findItem(customerID, itemName);
-                    break;
-                case "ON":
-                    result = ((client.generated.on.StoreServer)serverObj).findItem(customerID, itemName);
-                    break;
-                case "BC":
-                    result = ((client.generated.bc.StoreServer)serverObj).findItem(customerID, itemName);
-                    break;
-                default:
-                    result = "Error: Unknown store";
-            }
+            String result = server.findItem(customerID, itemName);
             
             System.out.println(result);
             clientLogger.logOperation("FIND_ITEM", customerID, itemName, result);
@@ -184,27 +155,14 @@ public class CustomerClient {
         }
     }
     
-    private static void returnItem(Object serverObj, String storePrefix, String customerID, Scanner scanner) {
+    private static void returnItem(StoreServer server, String customerID, Scanner scanner) {
         try {
             System.out.print("Item ID: ");
             String itemID = scanner.nextLine().trim();
             System.out.print("Return Date (ddmmyyyy): ");
             String date = scanner.nextLine().trim();
             
-            String result;
-            switch (storePrefix) {
-                case "QC":
-                    result = ((client.generated.qc.StoreServer)serverObj).returnItem(customerID, itemID, date);
-                    break;
-                case "ON":
-                    result = ((client.generated.on.StoreServer)serverObj).returnItem(customerID, itemID, date);
-                    break;
-                case "BC":
-                    result = ((client.generated.bc.StoreServer)serverObj).returnItem(customerID, itemID, date);
-                    break;
-                default:
-                    result = "Error: Unknown store";
-            }
+            String result = server.returnItem(customerID, itemID, date);
             
             System.out.println("Result: " + result);
             clientLogger.logOperation("RETURN", customerID, itemID + "," + date, result);
@@ -215,7 +173,7 @@ public class CustomerClient {
         }
     }
     
-    private static void exchangeItem(Object serverObj, String storePrefix, String customerID, Scanner scanner) {
+    private static void exchangeItem(StoreServer server, String customerID, Scanner scanner) {
         try {
             System.out.print("Old Item ID (item to exchange): ");
             String oldItemID = scanner.nextLine().trim();
@@ -223,20 +181,7 @@ public class CustomerClient {
             String newItemID = scanner.nextLine().trim();
             
             System.out.println("Processing exchange...");
-            String result;
-            switch (storePrefix) {
-                case "QC":
-                    result = ((client.generated.qc.StoreServer)serverObj).exchangeItem(customerID, newItemID, oldItemID);
-                    break;
-                case "ON":
-                    result = ((client.generated.on.StoreServer)serverObj).exchangeItem(customerID, newItemID, oldItemID);
-                    break;
-                case "BC":
-                    result = ((client.generated.bc.StoreServer)serverObj).exchangeItem(customerID, newItemID, oldItemID);
-                    break;
-                default:
-                    result = "Error: Unknown store";
-            }
+            String result = server.exchangeItem(customerID, newItemID, oldItemID);
             
             System.out.println("Result: " + result);
             clientLogger.logOperation("EXCHANGE", customerID, newItemID + "," + oldItemID, result);
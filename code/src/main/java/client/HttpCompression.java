@@ -0,0 +1,29 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.ws.BindingProvider;
+import javax.xml.ws.handler.MessageContext;
+
+//Makes a SOAP proxy ask for gzip-compressed replies. The servers compress only replies of at least
+//-Ddsms.http.gzipThreshold bytes (server.GzipFilter), and the JAX-WS RI client inflates them transparently.
+//Disabled with -Ddsms.http.gzip=false.
+public class HttpCompression {
+    @SuppressWarnings("unchecked")
+    public static <T> T acceptGzip(T port) {
+        if (port instanceof BindingProvider && Boolean.parseBoolean(System.getProperty("dsms.http.gzip", "true"))) {
+            Map<String, Object> context = ((BindingProvider) port).getRequestContext();
+            Map<String, List<String>> headers = new HashMap<>();
+            Object existing = context.get(MessageContext.HTTP_REQUEST_HEADERS);
+            if (existing instanceof Map) {
+                headers.putAll((Map<String, List<String>>) existing);
+            }
+            headers.put("Accept-Encoding", new ArrayList<>(Collections.singletonList("gzip")));
+            context.put(MessageContext.HTTP_REQUEST_HEADERS, headers);
+        }
+        return port;
+    }
+}
@@ -0,0 +1,140 @@
+package client;
+
+import interfaces.StoreServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import utils.Json;
+
+//StoreServer over a store's plain HTTP binding (server.JsonHttpEndpoint), e.g.
+//new JsonStoreClient("http://localhost:8180"). Thread-safe; connections are kept alive and reused by the JDK.
+//Large replies come back gzipped and are inflated here.
+public class JsonStoreClient implements StoreServer {
+    private final String baseUrl;
+
+    public JsonStoreClient(String baseUrl) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl + "api/" : baseUrl + "/api/";
+    }
+
+    @Override
+    public String addItem(String managerID, String itemID, String itemName, int quantity, double price) {
+        return call("addItem", "managerID", managerID, "itemID", itemID, "itemName", itemName,
+                    "quantity", String.valueOf(quantity), "price", String.valueOf(price));
+    }
+
+    @Override
+    public String removeItem(String managerID, String itemID, int quantity) {
+        return call("removeItem", "managerID", managerID, "itemID", itemID, "quantity", String.valueOf(quantity));
+    }
+
+    @Override
+    public String addItems(String managerID, String items) {
+        return call("addItems", "managerID", managerID, "items", items);
+    }
+
+    @Override
+    public String removeItems(String managerID, String items) {
+        return call("removeItems", "managerID", managerID, "items", items);
+    }
+
+    @Override
+    public String listItemAvailability(String managerID) {
+        return call("listItemAvailability", "managerID", managerID);
+    }
+
+    @Override
+    public String purchaseItem(String customerID, String itemID, int quantity, String dateOfPurchase) {
+        return call("purchaseItem", "customerID", customerID, "itemID", itemID, "quantity", String.valueOf(quantity),
+                    "dateOfPurchase", dateOfPurchase);
+    }
+
+    @Override
+    public String purchaseItems(String customerID, String items, String dateOfPurchase) {
+        return call("purchaseItems", "customerID", customerID, "items", items, "dateOfPurchase", dateOfPurchase);
+    }
+
+    @Override
+    public String findItem(String customerID, String itemName) {
+        return call("findItem", "customerID", customerID, "itemName", itemName);
+    }
+
+    @Override
+    public String returnItem(String customerID, String itemID, String dateOfReturn) {
+        return call("returnItem", "customerID", customerID, "itemID", itemID, "dateOfReturn", dateOfReturn);
+    }
+
+    @Override
+    public String exchangeItem(String customerID, String newItemID, String oldItemID) {
+        return call("exchangeItem", "customerID", customerID, "newItemID", newItemID, "oldItemID", oldItemID);
+    }
+
+    @Override
+    public String addToWaitlist(String customerID, String itemID) {
+        return call("addToWaitlist", "customerID", customerID, "itemID", itemID);
+    }
+
+    @Override
+    public String getStorePrefix() {
+        return call("getStorePrefix");
+    }
+
+    //nameValues alternates parameter names and values
+    private String call(String operation, String... nameValues) {
+        try {
+            StringBuilder form = new StringBuilder();
+            for (int i = 0; i < nameValues.length; i += 2) {
+                if (nameValues[i + 1] == null) {
+                    continue;
+                }
+                if (form.length() > 0) {
+                    form.append('&');
+                }
+                form.append(nameValues[i]).append('=').append(URLEncoder.encode(nameValues[i + 1], "UTF-8"));
+            }
+            byte[] body = form.toString().getBytes(StandardCharsets.UTF_8);
+
+            HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + operation).openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+
+            int status = connection.getResponseCode();
+            InputStream in = status == 200 ? connection.getInputStream() : connection.getErrorStream();
+            if (in != null && "gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+                in = new GZIPInputStream(in);
+            }
+            String json = in == null ? "" : readAll(in);
+            if (status != 200) {
+                String error = Json.stringField(json, "error");
+                throw new IllegalStateException(operation + " failed with HTTP " + status + (error != null ? ": " + error : ""));
+            }
+            return Json.stringField(json, "result");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot reach " + baseUrl + operation, e);
+        }
+    }
+
+    //Reading to the end lets the connection go back to the keep-alive cache
+    private static String readAll(InputStream in) throws IOException {
+        try (InputStream body = in) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4096];
+            int read;
+            while ((read = body.read(chunk)) != -1) {
+                bytes.write(chunk, 0, read);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
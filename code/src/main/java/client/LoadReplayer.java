@@ -0,0 +1,320 @@
+package client;
+
+import interfaces.StoreServer;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import utils.AuditJournal;
+
+//Replays operations recorded in server logs (text "<prefix>_server.log" or binary "<prefix>_server" journal)
+//against running stores, keeping their original spacing divided by a speedup, and reports throughput and
+//latency percentiles per operation. Latency is measured from each call's scheduled start, so a backed-up
+//cluster shows up as latency instead of silently slowing the replay down.
+//
+//Usage: LoadReplayer <log or journal base>... [--speedup N] [--threads N] [--url QC=http://host:port/QCServer]
+//  --speedup 0 sends every call as fast as the worker threads allow
+//Each log is replayed against the store that wrote it, named by the file ("QC_server.log", "QC_server") or given
+//as "QC=<log or journal base>". The store cannot be told from the user IDs: a remote purchase is logged by both
+//stores with the same user and item, and only the customer's home store may replay it.
+//Operations the log does not describe fully are skipped: bulk manager calls (only their entry count is logged),
+//waitlist fulfilment (logged as WAITLIST_FULFILL only, never as a PURCHASE) and exchange completions (server
+//side effects), and the remote store's half of a remote purchase. A journal only keeps the item ID, so from a journal only purchases, returns, removals (one unit)
+//and listings are replayed, with quantity 1 and the event's date.
+public class LoadReplayer {
+    private static final Pattern TEXT_LINE =
+        Pattern.compile("^\\[(.{19})\\] (\\S+) - User: (.*?) - Params: (.*?) - Result: (.*)$");
+    private static final Pattern CART_LINE = Pattern.compile("([A-Z]{2}\\d{4})=(\\d+)");
+    private static final DateTimeFormatter LOG_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter PURCHASE_DATE = DateTimeFormatter.ofPattern("ddMMyyyy");
+
+    private final Function<String, StoreServer> connector;
+    private final int threads;
+
+    //connector opens a store proxy by prefix; it is called once per worker thread and store
+    public LoadReplayer(Function<String, StoreServer> connector, int threads) {
+        this.connector = connector;
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Call> calls = new ArrayList<>();
+        double speedup = 1.0;
+        int threads = 32;
+        Map<String, String> urls = new HashMap<>();
+        urls.put("QC", "http://localhost:8080/QCServer");
+        urls.put("ON", "http://localhost:8081/ONServer");
+        urls.put("BC", "http://localhost:8082/BCServer");
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--speedup": speedup = Double.parseDouble(args[++i]); break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--url": {
+                    String[] target = args[++i].split("=", 2);
+                    urls.put(target[0], target[1]);
+                    break;
+                }
+                default: {
+                    String store = args[i].matches("[A-Z]{2}=.*") ? args[i].substring(0, 2) : null;
+                    Path path = Paths.get(store != null ? args[i].substring(3) : args[i]);
+                    if (store == null) {
+                        store = storeOf(path.getFileName().toString());
+                    }
+                    if (store == null) {
+                        System.err.println("Cannot tell which store wrote " + path + "; name it <XX>_server... or pass XX=" + path);
+                        System.exit(1);
+                    }
+                    calls.addAll(Files.isRegularFile(path) ? parseTextLog(path, store) : parseJournal(path, store));
+                }
+            }
+        }
+
+        if (calls.isEmpty()) {
+            System.err.println("Usage: LoadReplayer [XX=]<log or journal base>... [--speedup N] [--threads N] [--url QC=http://...]");
+            System.exit(1);
+        }
+
+        LoadReplayer replayer = new LoadReplayer(store -> StorePorts.connect(urls.get(store)), threads);
+        System.out.println("Replaying " + calls.size() + " calls" + (speedup > 0 ? " at " + speedup + "x" : " flat out") +
+                           " with " + threads + " threads...");
+        System.out.print(replayer.replay(calls, speedup));
+    }
+
+    //Runs the calls in timestamp order and returns the report
+    public String replay(List<Call> calls, double speedup) throws InterruptedException {
+        List<Call> ordered = new ArrayList<>(calls);
+        ordered.sort(Comparator.comparingLong(call -> call.epochNanos));
+
+        Map<String, Stats> stats = new TreeMap<>();
+        for (Call call : ordered) {
+            stats.computeIfAbsent(call.operation, Stats::new);
+        }
+
+        ThreadLocal<Map<String, StoreServer>> proxies = ThreadLocal.withInitial(HashMap::new);
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "replay-worker");
+            t.setDaemon(true);
+            return t;
+        });
+
+        long firstEvent = ordered.get(0).epochNanos;
+        long start = System.nanoTime();
+        for (Call call : ordered) {
+            long due = speedup > 0 ? start + (long) ((call.epochNanos - firstEvent) / speedup) : System.nanoTime();
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            Stats opStats = stats.get(call.operation);
+            workers.execute(() -> {
+                boolean ok;
+                try {
+                    StoreServer server = proxies.get().computeIfAbsent(call.store, connector);
+                    call.invocation.apply(server);
+                    ok = true;
+                } catch (RuntimeException e) {
+                    ok = false;
+                }
+                opStats.record(System.nanoTime() - due, ok);
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-20s %8s %10s %9s %9s %9s %9s %9s %7s%n",
+                                    "operation", "calls", "ops/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "errors"));
+        int total = 0;
+        for (Stats opStats : stats.values()) {
+            report.append(opStats.summary(seconds));
+            total += opStats.count();
+        }
+        report.append(String.format("Total: %d calls in %.2f s (%.1f ops/s)%n", total, seconds, total / seconds));
+        return report.toString();
+    }
+
+    //store is the store that wrote the log
+    public static List<Call> parseTextLog(Path file, String store) throws IOException {
+        List<Call> calls = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            Matcher matcher = TEXT_LINE.matcher(line);
+            if (!matcher.matches()) {
+                continue;
+            }
+            long epochNanos = toEpochNanos(LocalDateTime.parse(matcher.group(1), LOG_TIME));
+            try {
+                Call call = fromText(store, epochNanos, matcher.group(2), matcher.group(3), matcher.group(4));
+                if (call != null) {
+                    calls.add(call);
+                }
+            } catch (RuntimeException e) {
+                //A line whose parameters do not parse is not replayable
+            }
+        }
+        return calls;
+    }
+
+    public static List<Call> parseJournal(Path base, String store) throws IOException {
+        List<Call> calls = new ArrayList<>();
+        for (Path segment : AuditJournal.segments(base)) {
+            AuditJournal.read(segment, entry -> {
+                if (entry.getOperation() == null || entry.getUserID() == null) {
+                    return;
+                }
+                Call call = fromJournal(store, entry);
+                if (call != null) {
+                    calls.add(call);
+                }
+            });
+        }
+        return calls;
+    }
+
+    private static Call fromText(String store, long epochNanos, String operation, String user, String params) {
+        String[] p = params.split(",");
+        switch (operation) {
+            case "ADD_ITEM":
+                return new Call(store, epochNanos, operation,
+                    s -> s.addItem(user, p[0], p[1], Integer.parseInt(p[2]), Double.parseDouble(p[3])));
+            case "REMOVE_ITEM":
+                return new Call(store, epochNanos, operation, s -> s.removeItem(user, p[0], Integer.parseInt(p[1])));
+            case "LIST_ITEMS":
+                return new Call(store, epochNanos, operation, s -> s.listItemAvailability(user));
+            case "PURCHASE":
+                return new Call(store, epochNanos, operation, s -> s.purchaseItem(user, p[0], Integer.parseInt(p[1]), p[2]));
+            case "REMOTE_PURCHASE":
+            case "REMOTE_PURCHASE_FAILED":
+                if (p[0].startsWith(store)) {
+                    return null;
+                }
+                return new Call(store, epochNanos, "REMOTE_PURCHASE", s -> s.purchaseItem(user, p[0], Integer.parseInt(p[1]), p[2]));
+            case "PURCHASE_CART": {
+                String date = params.substring(params.lastIndexOf(',') + 1);
+                StringBuilder items = new StringBuilder();
+                Matcher line = CART_LINE.matcher(params);
+                while (line.find()) {
+                    items.append(line.group(1)).append(',').append(line.group(2)).append(';');
+                }
+                String cart = items.toString();
+                return new Call(store, epochNanos, operation, s -> s.purchaseItems(user, cart, date));
+            }
+            case "FIND_ITEM":
+                return new Call(store, epochNanos, operation, s -> s.findItem(user, params));
+            case "RETURN":
+                return new Call(store, epochNanos, operation, s -> s.returnItem(user, p[0], p[1]));
+            case "EXCHANGE_START": {
+                String newItem = p[0].substring(p[0].indexOf('=') + 1);
+                String oldItem = p[1].substring(p[1].indexOf('=') + 1);
+                return new Call(store, epochNanos, "EXCHANGE", s -> s.exchangeItem(user, newItem, oldItem));
+            }
+            default:
+                return null;
+        }
+    }
+
+    private static Call fromJournal(String store, AuditJournal.Entry entry) {
+        String user = entry.getUserID();
+        String item = entry.getItemID();
+        String operation = entry.getOperation();
+        long epochNanos = entry.getEpochNanos();
+        String date = LocalDateTime.ofInstant(Instant.ofEpochSecond(0, epochNanos), ZoneId.systemDefault()).format(PURCHASE_DATE);
+        if (item == null && !operation.equals("LIST_ITEMS")) {
+            return null;
+        }
+        switch (operation) {
+            case "LIST_ITEMS":
+                return new Call(store, epochNanos, operation, s -> s.listItemAvailability(user));
+            case "REMOVE_ITEM":
+                return new Call(store, epochNanos, operation, s -> s.removeItem(user, item, 1));
+            case "PURCHASE":
+                return new Call(store, epochNanos, operation, s -> s.purchaseItem(user, item, 1, date));
+            case "REMOTE_PURCHASE":
+            case "REMOTE_PURCHASE_FAILED":
+                if (item.startsWith(store)) {
+                    return null;
+                }
+                return new Call(store, epochNanos, "REMOTE_PURCHASE", s -> s.purchaseItem(user, item, 1, date));
+            case "RETURN":
+                return new Call(store, epochNanos, operation, s -> s.returnItem(user, item, date));
+            default:
+                return null;
+        }
+    }
+
+    //"QC_server.log" and "QC_server" belong to QC; null for any other name
+    private static String storeOf(String fileName) {
+        return fileName.matches("[A-Z]{2}_server.*") ? fileName.substring(0, 2) : null;
+    }
+
+    private static long toEpochNanos(LocalDateTime time) {
+        Instant instant = time.atZone(ZoneId.systemDefault()).toInstant();
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+
+    public static class Call {
+        final String store;
+        final long epochNanos;
+        final String operation;
+        final Function<StoreServer, String> invocation;
+
+        Call(String store, long epochNanos, String operation, Function<StoreServer, String> invocation) {
+            this.store = store;
+            this.epochNanos = epochNanos;
+            this.operation = operation;
+            this.invocation = invocation;
+        }
+    }
+
+    private static class Stats {
+        private final String operation;
+        private long[] latencies = new long[256];
+        private int size;
+        private int errors;
+
+        Stats(String operation) {
+            this.operation = operation;
+        }
+
+        synchronized void record(long latencyNanos, boolean ok) {
+            if (size == latencies.length) {
+                latencies = Arrays.copyOf(latencies, size * 2);
+            }
+            latencies[size++] = latencyNanos;
+            if (!ok) {
+                errors++;
+            }
+        }
+
+        synchronized int count() {
+            return size;
+        }
+
+        synchronized String summary(double seconds) {
+            long[] sorted = Arrays.copyOf(latencies, size);
+            Arrays.sort(sorted);
+            return String.format("%-20s %8d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f %7d%n", operation, size, size / seconds,
+                                 percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99),
+                                 percentile(sorted, 0.999), size == 0 ? 0.0 : sorted[size - 1] / 1e6, errors);
+        }
+
+        private static double percentile(long[] sorted, double quantile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(quantile * sorted.length) - 1;
+            return sorted[Math.max(0, index)] / 1e6;
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package client;
 
-import java.net.URL;
+import interfaces.StoreServer;
 import java.util.Scanner;
 import utils.DSMSLogger;
 
@@ -18,7 +18,7 @@ public class ManagerClient {
         try {
             //Determine store prefix and connect to appropriate web service
             String storePrefix = managerID.substring(0, 2).toUpperCase();
-            Object server = connectToWebService(storePrefix);
+            StoreServer server = connectToWebService(storePrefix);
             
             if (server == null) {
                 System.err.println("ERROR: Could not connect to " + storePrefix + " server");
@@ -33,22 +33,30 @@ public class ManagerClient {
                 System.out.println("1. Add Item");
                 System.out.println("2. Remove Item");
                 System.out.println("3. List Items");
-                System.out.println("4. Exit");
+                System.out.println("4. Bulk Add Items");
+                System.out.println("5. Bulk Remove Items");
+                System.out.println("6. Exit");
                 System.out.print("Choose option: ");
                 
                 String choice = scanner.nextLine().trim();
                 
                 switch (choice) {
                     case "1":
-                        addItem(server, storePrefix, managerID, scanner);
+                        addItem(server, managerID, scanner);
                         break;
                     case "2":
-                        removeItem(server, storePrefix, managerID, scanner);
+                        removeItem(server, managerID, scanner);
                         break;
                     case "3":
-                        listItems(server, storePrefix, managerID);
+                        listItems(server, managerID);
                         break;
                     case "4":
+                        bulkAddItems(server, managerID, scanner);
+                        break;
+                    case "5":
+                        bulkRemoveItems(server, managerID, scanner);
+                        break;
+                    case "6":
                         exit = true;
                         break;
                     default:
@@ -64,26 +72,14 @@ public class ManagerClient {
         scanner.close();
     }
     
-    private static Object connectToWebService(String storePrefix) {
+    private static StoreServer connectToWebService(String storePrefix) {
         try {
-            String wsdlUrl;
-            switch (storePrefix) {
-                case "QC":
-                    wsdlUrl = "http://localhost:8080/QCServer?wsdl";
-                    client.generated.qc.StoreServerService qcService = new client.generated.qc.StoreServerService(new URL(wsdlUrl));
-                    return qcService.getStoreServerImplPort();
-                case "ON":
-                    wsdlUrl = "http://localhost:8081/ONServer?wsdl";
-                    client.generated.on.StoreServerService onService = new client.generated.on.StoreServerService(new URL(wsdlUrl));
-                    return onService.getStoreServerImplPort();
-                case "BC":
-                    wsdlUrl = "http://localhost:8082/BCServer?wsdl";
-                    client.generated.bc.StoreServerService bcService = new client.generated.bc.StoreServerService(new URL(wsdlUrl));
-                    return bcService.getStoreServerImplPort();
-                default:
-                    System.err.println("Unknown store prefix: " + storePrefix);
-                    return null;
+            StoreClient stores = new StoreClient();
+            if (!stores.hasStore(storePrefix)) {
+                System.err.println("Unknown store prefix: " + storePrefix);
+                return null;
             }
+            return stores;
         } catch (Exception e) {
             System.err.println("Error connecting to web service: " + e.getMessage());
             e.printStackTrace();
@@ -91,7 +87,7 @@ public class ManagerClient {
         }
     }
     
-    private static void addItem(Object serverObj, String storePrefix, String managerID, Scanner scanner) {
+    private static void addItem(StoreServer server, String managerID, Scanner scanner) {
         try {
             System.out.print("Item ID: ");
             String itemID = scanner.nextLine().trim();
@@ -102,20 +98,7 @@ public class ManagerClient {
             System.out.print("Price: ");
             double price = Double.parseDouble(scanner.nextLine().trim());
             
-            String result;
-            switch (storePrefix) {
-                case "QC":
-                    result = ((client.generated.qc.StoreServer)serverObj).addItem(managerID, itemID, itemName, quantity, price);
-                    break;
-                case "ON":
-                    result = ((client.generated.on.StoreServer)serverObj).addItem(managerID, itemID, itemName, quantity, price);
-                    break;
-                case "BC":
-                    result = ((client.generated.bc.StoreServer)serverObj).addItem(managerID, itemID, itemName, quantity, price);
-                    break;
-                default:
-                    result = "Error: Unknown store";
-            }
+            String result = server.addItem(managerID, itemID, itemName, quantity, price);
             
             System.out.println("Result: " + result);
             clientLogger.logOperation("ADD_ITEM", managerID, itemID + "," + itemName + "," + quantity + "," + price, result);
@@ -126,27 +109,14 @@ public class ManagerClient {
         }
     }
     
-    private static void removeItem(Object serverObj, String storePrefix, String managerID, Scanner scanner) {
+    private static void removeItem(StoreServer server, String managerID, Scanner scanner) {
         try {
             System.out.print("Item ID: ");
             String itemID = scanner.nextLine().trim();
             System.out.print("Quantity to remove: ");
             int quantity = Integer.parseInt(scanner.nextLine().trim());
             
-            String result;
-            switch (storePrefix) {
-                case "QC":
-                    result = ((client.generated.qc.StoreServer)serverObj).removeItem(managerID, itemID, quantity);
-                    break;
-                case "ON":
-                    result = ((client.generated.on.StoreServer)serverObj).removeItem(managerID, itemID, quantity);
-                    break;
-                case "BC":
-                    result = ((client.generated.bc.StoreServer)serverObj).removeItem(managerID, itemID, quantity);
-                    break;
-                default:
-                    result = "Error: Unknown store";
-            }
+            String result = server.removeItem(managerID, itemID, quantity);
             
             System.out.println("Result: " + result);
             clientLogger.logOperation("REMOVE_ITEM", managerID, itemID + "," + quantity, result);
@@ -157,22 +127,41 @@ public class ManagerClient {
         }
     }
     
-    private static void listItems(Object serverObj, String storePrefix, String managerID) {
+    private static void bulkAddItems(StoreServer server, String managerID, Scanner scanner) {
         try {
-            String result;
-            switch (storePrefix) {
-                case "QC":
-                    result = ((client.generated.qc.StoreServer)serverObj).listItemAvailability(managerID);
-                    break;
-                case "ON":
-                    result = ((client.generated.on.StoreServer)serverObj).listItemAvailability(managerID);
-                    break;
-                case "BC":
-                    result = ((client.generated.bc.StoreServer)serverObj).listItemAvailability(managerID);
-                    break;
-                default:
-                    result = "Error: Unknown store";
-            }
+            System.out.print("Items (itemID,name,quantity,price;...): ");
+            String items = scanner.nextLine().trim();
+            
+            String result = server.addItems(managerID, items);
+            
+            System.out.println(result);
+            clientLogger.logOperation("ADD_ITEMS", managerID, items, result);
+            
+        } catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    private static void bulkRemoveItems(StoreServer server, String managerID, Scanner scanner) {
+        try {
+            System.out.print("Items (itemID,quantity;...): ");
+            String items = scanner.nextLine().trim();
+            
+            String result = server.removeItems(managerID, items);
+            
+            System.out.println(result);
+            clientLogger.logOperation("REMOVE_ITEMS", managerID, items, result);
+            
+        } catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    private static void listItems(StoreServer server, String managerID) {
+        try {
+            String result = server.listItemAvailability(managerID);
             
             System.out.println(result);
             clientLogger.logOperation("LIST_ITEMS", managerID, "", "Success");
@@ -0,0 +1,117 @@
+package client;
+
+import interfaces.StoreServer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//One client for every store. A call goes to the store named by the first two letters of its user ID, which
+//holds the customer's budget or the manager's inventory and forwards any cross-store work itself; store(id)
+//routes by any user or item ID. Each store is reached through the shared StorePorts proxy, which concurrent
+//callers can use at once, so the client keeps no pool of its own. Concurrent calls open parallel keep-alive
+//connections; the JDK's idle limit per server (http.maxConnections) is raised to 8 unless set on the command
+//line. Thread-safe.
+public class StoreClient implements StoreServer {
+    static {
+        //Read once when the first HTTP connection is made; the JDK keeps only 5 idle connections per server otherwise
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", "8");
+        }
+    }
+
+    private final Map<String, StoreServer> stores;
+
+    public StoreClient() {
+        this(defaultAddresses());
+    }
+
+    //addresses maps store prefixes to SOAP endpoint addresses
+    public StoreClient(Map<String, String> addresses) {
+        this.stores = new LinkedHashMap<>();
+        for (Map.Entry<String, String> store : addresses.entrySet()) {
+            stores.put(store.getKey(), StorePorts.at(store.getValue()));
+        }
+    }
+
+    private static Map<String, String> defaultAddresses() {
+        Map<String, String> addresses = new LinkedHashMap<>();
+        for (String store : new String[]{"QC", "ON", "BC"}) {
+            addresses.put(store, StorePorts.addressOf(store));
+        }
+        return addresses;
+    }
+
+    public boolean hasStore(String storePrefix) {
+        return stores.containsKey(storePrefix);
+    }
+
+    //A proxy of the store that owns the given user or item ID
+    public StoreServer store(String id) {
+        StoreServer store = id == null || id.length() < 2 ? null : stores.get(id.substring(0, 2).toUpperCase());
+        if (store == null) {
+            throw new IllegalArgumentException("No store for ID: " + id);
+        }
+        return store;
+    }
+
+    @Override
+    public String addItem(String managerID, String itemID, String itemName, int quantity, double price) {
+        return store(managerID).addItem(managerID, itemID, itemName, quantity, price);
+    }
+
+    @Override
+    public String removeItem(String managerID, String itemID, int quantity) {
+        return store(managerID).removeItem(managerID, itemID, quantity);
+    }
+
+    @Override
+    public String addItems(String managerID, String items) {
+        return store(managerID).addItems(managerID, items);
+    }
+
+    @Override
+    public String removeItems(String managerID, String items) {
+        return store(managerID).removeItems(managerID, items);
+    }
+
+    @Override
+    public String listItemAvailability(String managerID) {
+        return store(managerID).listItemAvailability(managerID);
+    }
+
+    @Override
+    public String purchaseItem(String customerID, String itemID, int quantity, String dateOfPurchase) {
+        return store(customerID).purchaseItem(customerID, itemID, quantity, dateOfPurchase);
+    }
+
+    @Override
+    public String purchaseItems(String customerID, String items, String dateOfPurchase) {
+        return store(customerID).purchaseItems(customerID, items, dateOfPurchase);
+    }
+
+    @Override
+    public String findItem(String customerID, String itemName) {
+        return store(customerID).findItem(customerID, itemName);
+    }
+
+    @Override
+    public String returnItem(String customerID, String itemID, String dateOfReturn) {
+        return store(customerID).returnItem(customerID, itemID, dateOfReturn);
+    }
+
+    @Override
+    public String exchangeItem(String customerID, String newItemID, String oldItemID) {
+        return store(customerID).exchangeItem(customerID, newItemID, oldItemID);
+    }
+
+    @Override
+    public String addToWaitlist(String customerID, String itemID) {
+        return store(customerID).addToWaitlist(customerID, itemID);
+    }
+
+    //The prefixes of the stores this client routes to, comma-separated ("QC,ON,BC" by default); a client of a
+    //single store returns just its prefix
+    @Override
+    public String getStorePrefix() {
+        return String.join(",", stores.keySet());
+    }
+}
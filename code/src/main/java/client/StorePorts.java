@@ -0,0 +1,86 @@
+package client;
+
+import interfaces.StoreServer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.xml.namespace.QName;
+import javax.xml.ws.BindingProvider;
+import javax.xml.ws.Service;
+
+//Shared SOAP proxies, created on first use from the bundled WSDL and then reused. Building a service parses the
+//WSDL and builds its runtime model, which is most of a client's startup time; a JAX-WS RI proxy can then be
+//called from many threads at once, as long as its request context is not changed after it is handed out.
+public class StorePorts {
+    private static final QName SERVICE = new QName("http://server/", "StoreServerService");
+    private static final QName PORT = new QName("http://server/", "StoreServerImplPort");
+
+    private static final ConcurrentMap<String, Object> ports = new ConcurrentHashMap<>();
+    private static volatile Service service;
+
+    public static client.generated.qc.StoreServer qc() {
+        return (client.generated.qc.StoreServer) ports.computeIfAbsent("QC",
+            k -> customise(new client.generated.qc.StoreServerService().getStoreServerImplPort(), addressOf("QC")));
+    }
+
+    public static client.generated.on.StoreServer on() {
+        return (client.generated.on.StoreServer) ports.computeIfAbsent("ON",
+            k -> customise(new client.generated.on.StoreServerService().getStoreServerImplPort(), addressOf("ON")));
+    }
+
+    public static client.generated.bc.StoreServer bc() {
+        return (client.generated.bc.StoreServer) ports.computeIfAbsent("BC",
+            k -> customise(new client.generated.bc.StoreServerService().getStoreServerImplPort(), addressOf("BC")));
+    }
+
+    //The generated proxy of a store, or null for an unknown prefix
+    public static Object forStore(String storePrefix) {
+        switch (storePrefix) {
+            case "QC": return qc();
+            case "ON": return on();
+            case "BC": return bc();
+            default: return null;
+        }
+    }
+
+    //SOAP address of a store, or null for an unknown prefix
+    public static String addressOf(String storePrefix) {
+        switch (storePrefix) {
+            case "QC": return "http://localhost:8080/QCServer";
+            case "ON": return "http://localhost:8081/ONServer";
+            case "BC": return "http://localhost:8082/BCServer";
+            default: return null;
+        }
+    }
+
+    //A shared proxy for the endpoint at the given address, e.g. "http://localhost:8080/QCServer"
+    public static StoreServer at(String address) {
+        return (StoreServer) ports.computeIfAbsent(address, StorePorts::connect);
+    }
+
+    //A new proxy of its own for the endpoint at the given address, for callers that change its request context
+    public static StoreServer connect(String address) {
+        return customise(service().getPort(PORT, StoreServer.class), address);
+    }
+
+    //The generated stubs are left as wsimport wrote them; every proxy is pointed at its store and set up
+    //for Fast Infoset and gzip here
+    private static <T> T customise(T port, String address) {
+        T customised = HttpCompression.acceptGzip(FastInfoset.negotiate(port));
+        ((BindingProvider) customised).getRequestContext().put(BindingProvider.ENDPOINT_ADDRESS_PROPERTY, address);
+        return customised;
+    }
+
+    private static Service service() {
+        Service created = service;
+        if (created == null) {
+            synchronized (StorePorts.class) {
+                created = service;
+                if (created == null) {
+                    created = Service.create(StorePorts.class.getResource("/wsdl/StoreServerService.wsdl"), SERVICE);
+                    service = created;
+                }
+            }
+        }
+        return created;
+    }
+}
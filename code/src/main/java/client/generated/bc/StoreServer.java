@@ -64,6 +64,38 @@ public interface StoreServer {
         @WebParam(name = "quantity", partName = "quantity")
         int quantity);
 
+    /**
+     * 
+     * @param items
+     * @param managerID
+     * @return
+     *     returns java.lang.String
+     */
+    @WebMethod
+    @WebResult(partName = "return")
+    @Action(input = "http://interfaces/StoreServer/addItemsRequest", output = "http://interfaces/StoreServer/addItemsResponse")
+    public String addItems(
+        @WebParam(name = "managerID", partName = "managerID")
+        String managerID,
+        @WebParam(name = "items", partName = "items")
+        String items);
+
+    /**
+     * 
+     * @param items
+     * @param managerID
+     * @return
+     *     returns java.lang.String
+     */
+    @WebMethod
+    @WebResult(partName = "return")
+    @Action(input = "http://interfaces/StoreServer/removeItemsRequest", output = "http://interfaces/StoreServer/removeItemsResponse")
+    public String removeItems(
+        @WebParam(name = "managerID", partName = "managerID")
+        String managerID,
+        @WebParam(name = "items", partName = "items")
+        String items);
+
     /**
      * 
      * @param managerID
@@ -99,6 +131,25 @@ public interface StoreServer {
         @WebParam(name = "dateOfPurchase", partName = "dateOfPurchase")
         String dateOfPurchase);
 
+    /**
+     * 
+     * @param dateOfPurchase
+     * @param items
+     * @param customerID
+     * @return
+     *     returns java.lang.String
+     */
+    @WebMethod
+    @WebResult(partName = "return")
+    @Action(input = "http://interfaces/StoreServer/purchaseItemsRequest", output = "http://interfaces/StoreServer/purchaseItemsResponse")
+    public String purchaseItems(
+        @WebParam(name = "customerID", partName = "customerID")
+        String customerID,
+        @WebParam(name = "items", partName = "items")
+        String items,
+        @WebParam(name = "dateOfPurchase", partName = "dateOfPurchase")
+        String dateOfPurchase);
+
     /**
      * 
      * @param itemName
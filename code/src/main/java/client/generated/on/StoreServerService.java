@@ -1,7 +1,6 @@
 
 package client.generated.on;
 
-import java.net.MalformedURLException;
 import java.net.URL;
 import javax.xml.namespace.QName;
 import javax.xml.ws.Service;
@@ -17,7 +16,7 @@ import javax.xml.ws.WebServiceFeature;
  * Generated source version: 2.2
  * 
  */
-@WebServiceClient(name = "StoreServerService", targetNamespace = "http://server/", wsdlLocation = "http://localhost:8081/ONServer?wsdl")
+@WebServiceClient(name = "StoreServerService", targetNamespace = "http://server/", wsdlLocation = "/wsdl/StoreServerService.wsdl")
 public class StoreServerService
     extends Service
 {
@@ -27,14 +26,11 @@ public class StoreServerService
     private final static QName STORESERVERSERVICE_QNAME = new QName("http://server/", "StoreServerService");
 
     static {
-        URL url = null;
+            STORESERVERSERVICE_WSDL_LOCATION = client.generated.on.StoreServerService.class.getResource("/wsdl/StoreServerService.wsdl");
         WebServiceException e = null;
-        try {
-            url = new URL("http://localhost:8081/ONServer?wsdl");
-        } catch (MalformedURLException ex) {
-            e = new WebServiceException(ex);
+        if (STORESERVERSERVICE_WSDL_LOCATION == null) {
+            e = new WebServiceException("Cannot find '/wsdl/StoreServerService.wsdl' wsdl. Place the resource correctly in the classpath.");
         }
-        STORESERVERSERVICE_WSDL_LOCATION = url;
         STORESERVERSERVICE_EXCEPTION = e;
     }
 
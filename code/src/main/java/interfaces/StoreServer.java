@@ -25,6 +25,18 @@ public interface StoreServer {
         @WebParam(name = "quantity") int quantity
     );
     
+    @WebMethod
+    String addItems(
+        @WebParam(name = "managerID") String managerID,
+        @WebParam(name = "items") String items
+    );
+    
+    @WebMethod
+    String removeItems(
+        @WebParam(name = "managerID") String managerID,
+        @WebParam(name = "items") String items
+    );
+    
     @WebMethod
     String listItemAvailability(
         @WebParam(name = "managerID") String managerID
@@ -38,6 +50,13 @@ public interface StoreServer {
         @WebParam(name = "dateOfPurchase") String dateOfPurchase
     );
     
+    @WebMethod
+    String purchaseItems(
+        @WebParam(name = "customerID") String customerID,
+        @WebParam(name = "items") String items,
+        @WebParam(name = "dateOfPurchase") String dateOfPurchase
+    );
+    
     @WebMethod
     String findItem(
         @WebParam(name = "customerID") String customerID,
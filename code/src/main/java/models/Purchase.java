@@ -5,6 +5,7 @@ import java.time.format.DateTimeFormatter;
 
 public class Purchase implements Serializable {
     private static final long serialVersionUID = 1L;
+    public static final int RETURN_WINDOW_DAYS = 30;
 
     private String customerID;
     private String itemID;
@@ -18,9 +19,21 @@ public class Purchase implements Serializable {
         this.price = price;
     }
     
+    public Purchase(String customerID, String itemID, LocalDate purchaseDate, double price) {
+        this.customerID = customerID;
+        this.itemID = itemID;
+        this.purchaseDate = purchaseDate;
+        this.price = price;
+    }
+    
     public boolean canReturn(String returnDateStr) {
         LocalDate returnDate = LocalDate.parse(returnDateStr, DateTimeFormatter.ofPattern("ddMMyyyy"));
-        return purchaseDate.plusDays(30).isAfter(returnDate) || purchaseDate.plusDays(30).isEqual(returnDate);
+        return canReturn(returnDate);
+    }
+    
+    public boolean canReturn(LocalDate returnDate) {
+        LocalDate deadline = purchaseDate.plusDays(RETURN_WINDOW_DAYS);
+        return deadline.isAfter(returnDate) || deadline.isEqual(returnDate);
     }
     
     // Getters
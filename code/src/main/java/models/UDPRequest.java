@@ -13,6 +13,7 @@ public class UDPRequest implements Serializable {
     private String oldItemID;
     private double oldItemPrice;
     private int quantity;
+    private String transactionID;
     
     //Constructor for PURCHASE operation
     public UDPRequest(String customerID, String itemID, int quantity, String date, double budget) {
@@ -24,6 +25,12 @@ public class UDPRequest implements Serializable {
         this.budget = budget;
     }
     
+    //Constructor for PURCHASE_UNDO operation (gives back a purchase made by PURCHASE; what it cost travels as the budget)
+    public UDPRequest(String operation, String customerID, String itemID, int quantity, String date, double cost) {
+        this(customerID, itemID, quantity, date, cost);
+        this.operation = operation;
+    }
+    
     //Constructor for FIND operation
     public UDPRequest(String customerID, String itemName) {
         this.operation = "FIND";
@@ -31,9 +38,16 @@ public class UDPRequest implements Serializable {
         this.itemName = itemName;
     }
     
-    //Constructor for EXCHANGE_CHECK operation
+    //Constructor for QUOTE operation (the current price of one item)
+    public UDPRequest(String operation, String customerID, String itemID) {
+        this.operation = operation;
+        this.customerID = customerID;
+        this.itemID = itemID;
+    }
+    
+    //Constructor for EXCHANGE_RESERVE operation (validates and reserves the new item in one round trip)
     public UDPRequest(String customerID, String newItemID, String oldItemID, double budget, double oldItemPrice) {
-        this.operation = "EXCHANGE_CHECK";
+        this.operation = "EXCHANGE_RESERVE";
         this.customerID = customerID;
         this.itemID = newItemID;
         this.oldItemID = oldItemID;
@@ -51,19 +65,28 @@ public class UDPRequest implements Serializable {
         this.oldItemPrice = oldItemPrice;
     }
     
-    //Constructor for operations with 4 string parameters (EXCHANGE_ROLLBACK, EXCHANGE_RETURN, EXCHANGE_UNDO_RETURN)
-    //The 4th parameter is used as oldItemID for ROLLBACK, or date for RETURN operations
+    //Constructor for operations with 4 string parameters (EXCHANGE_RENEW, EXCHANGE_COMMIT, EXCHANGE_ROLLBACK, EXCHANGE_RETURN, EXCHANGE_UNDO_RETURN)
+    //The 4th parameter is the reservation's transactionID for RENEW/COMMIT/ROLLBACK, or date for RETURN operations
     public UDPRequest(String operation, String customerID, String itemID, String param4) {
         this.operation = operation;
         this.customerID = customerID;
         this.itemID = itemID;
-        if (operation.equals("EXCHANGE_ROLLBACK")) {
-            this.oldItemID = param4;
+        if (operation.equals("EXCHANGE_RENEW") || operation.equals("EXCHANGE_COMMIT") || operation.equals("EXCHANGE_ROLLBACK")) {
+            this.transactionID = param4;
         } else {
             this.date = param4;
         }
     }
     
+    //Constructor for EXCHANGE_RETURN / EXCHANGE_UNDO_RETURN tagged with the exchange's transactionID so retries are idempotent
+    public UDPRequest(String operation, String customerID, String itemID, String date, String transactionID) {
+        this.operation = operation;
+        this.customerID = customerID;
+        this.itemID = itemID;
+        this.date = date;
+        this.transactionID = transactionID;
+    }
+    
     // Getters
     public String getOperation() { return operation; }
     public String getCustomerID() { return customerID; }
@@ -74,6 +97,7 @@ public class UDPRequest implements Serializable {
     public String getOldItemID() { return oldItemID; }
     public double getOldItemPrice() { return oldItemPrice; }
     public int getQuantity() { return quantity; }
+    public String getTransactionID() { return transactionID; }
     
     @Override
     public String toString() {
@@ -86,7 +110,8 @@ public class UDPRequest implements Serializable {
         sb.append(budget).append("|");
         sb.append(oldItemID != null ? oldItemID : "").append("|");
         sb.append(oldItemPrice).append("|");
-        sb.append(quantity);
+        sb.append(quantity).append("|");
+        sb.append(transactionID != null ? transactionID : "");
         return sb.toString();
     }
     
@@ -108,6 +133,9 @@ public class UDPRequest implements Serializable {
         request.itemName = parts[3].isEmpty() ? null : parts[3];
         request.oldItemID = parts[6].isEmpty() ? null : parts[6];
         request.oldItemPrice = Double.parseDouble(parts[7]);
+        if (parts.length > 9 && !parts[9].isEmpty()) {
+            request.transactionID = parts[9];
+        }
         
         return request;
     }
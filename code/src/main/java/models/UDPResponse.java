@@ -50,6 +50,15 @@ public class UDPResponse implements Serializable {
         this.itemPrice = itemPrice;
     }
     
+    //Constructor for exchange reservations
+    public UDPResponse(boolean success, String message, double newBudget, double itemPrice, String transactionID) {
+        this.success = success;
+        this.message = message;
+        this.newBudget = newBudget;
+        this.itemPrice = itemPrice;
+        this.transactionID = transactionID;
+    }
+    
     public boolean isSuccess() { return success; }
     public String getMessage() { return message; }
     public String getErrorCode() { return errorCode; }
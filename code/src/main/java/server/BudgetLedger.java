@@ -0,0 +1,135 @@
+package server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjLongConsumer;
+
+//Customer budgets held as fixed-point cents so debits and credits are atomic and never box a Double
+public class BudgetLedger {
+    private final Map<String, AtomicLong> balances;
+    private final long initialCents;
+    private final ObjLongConsumer<String> onChange;
+
+    public BudgetLedger(double initialBudget) {
+        this(initialBudget, (customerID, deltaCents) -> { });
+    }
+
+    //onChange sees every applied balance change in cents, e.g. to write it ahead to a log
+    public BudgetLedger(double initialBudget, ObjLongConsumer<String> onChange) {
+        this.balances = new ConcurrentHashMap<>();
+        this.initialCents = toCents(initialBudget);
+        this.onChange = onChange;
+    }
+
+    public void openAccount(String customerID) {
+        account(customerID);
+    }
+
+    public boolean hasAccount(String customerID) {
+        return balances.containsKey(customerID);
+    }
+
+    public double getBalance(String customerID) {
+        return fromCents(account(customerID).get());
+    }
+
+    //Debits the amount only if the balance covers it (a negative amount is a refund); returns false and leaves the balance untouched otherwise
+    public boolean tryDebit(String customerID, double amount) {
+        return tryAdjustCents(customerID, -toCents(amount));
+    }
+
+    //Sets aside up to the amount (or the whole balance if it is smaller) for a charge whose final cost is not known yet;
+    //returns null if the balance is empty
+    public Hold tryHold(String customerID, double maxAmount) {
+        AtomicLong balance = account(customerID);
+        long wanted = toCents(maxAmount);
+        while (true) {
+            long current = balance.get();
+            long held = Math.min(current, wanted);
+            if (held <= 0) {
+                return null;
+            }
+            if (balance.compareAndSet(current, current - held)) {
+                onChange.accept(customerID, -held);
+                return new Hold(customerID, held);
+            }
+        }
+    }
+
+    public void credit(String customerID, double amount) {
+        long cents = toCents(amount);
+        account(customerID).addAndGet(cents);
+        onChange.accept(customerID, cents);
+    }
+
+    //Reapplies a logged balance change during recovery without reporting it again
+    public void restore(String customerID, long deltaCents) {
+        account(customerID).addAndGet(deltaCents);
+    }
+
+    private boolean tryAdjustCents(String customerID, long deltaCents) {
+        AtomicLong balance = account(customerID);
+        while (true) {
+            long current = balance.get();
+            long updated = current + deltaCents;
+            if (updated < 0) {
+                return false;
+            }
+            if (balance.compareAndSet(current, updated)) {
+                onChange.accept(customerID, deltaCents);
+                return true;
+            }
+        }
+    }
+
+    private AtomicLong account(String customerID) {
+        AtomicLong balance = balances.get(customerID);
+        if (balance == null) {
+            balance = balances.computeIfAbsent(customerID, k -> new AtomicLong(initialCents));
+        }
+        return balance;
+    }
+
+    //Funds taken out of a balance pending settlement; settled or released exactly once
+    public class Hold {
+        private final String customerID;
+        private final long heldCents;
+        private final AtomicBoolean open;
+
+        private Hold(String customerID, long heldCents) {
+            this.customerID = customerID;
+            this.heldCents = heldCents;
+            this.open = new AtomicBoolean(true);
+        }
+
+        public double getAmount() {
+            return fromCents(heldCents);
+        }
+
+        //Keeps the actual cost and returns the rest of the hold to the balance
+        public void settle(double actualAmount) {
+            if (open.compareAndSet(true, false)) {
+                long refund = heldCents - Math.min(heldCents, toCents(actualAmount));
+                account(customerID).addAndGet(refund);
+                onChange.accept(customerID, refund);
+            }
+        }
+
+        public void release() {
+            if (open.compareAndSet(true, false)) {
+                account(customerID).addAndGet(heldCents);
+                onChange.accept(customerID, heldCents);
+            }
+        }
+    }
+
+    public static long toCents(double amount) {
+        return Math.round(amount * 100.0);
+    }
+
+    public static double fromCents(long cents) {
+        return cents / 100.0;
+    }
+}
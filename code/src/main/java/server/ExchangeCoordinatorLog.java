@@ -0,0 +1,233 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+import models.Purchase;
+import models.UDPRequest;
+import models.UDPResponse;
+
+//Durable record of the cross-store exchanges this store coordinates. Each step is appended as
+//"transactionID|state|customerID|newItemID|oldItemID|newItemStore|oldItemStore|oldDay|oldCents|newDay|newCents"
+//(the old purchase being given up and the new one being made) so that after a crash in-flight exchanges can be
+//finished or compensated. This store's own side of an exchange (the price difference, the old purchase removed,
+//a local old item restocked) is applied in one write-ahead log group that also marks the exchange open, so
+//recovery knows whether it still has to be undone or completed:
+//  BEGIN       new item reserved, old item not yet returned       -> undo the home side if open, roll back the reservation
+//  RETURNING   old item return sent to its (remote) store         -> repeat the return (idempotent), complete and commit
+//  ABORTING    old item return failed                             -> undo the home side if open, undo the return, roll back
+//  COMMITTING  exchange decided                                   -> repeat the commit, then complete the home side if open;
+//                                                                    if the reservation lapsed and its unit is gone, reopen the
+//                                                                    home side if it was completed and abort instead
+//  END/ABORTED settled, nothing to do
+//Every step but END/ABORTED is on disk before the change it announces is made.
+public class ExchangeCoordinatorLog {
+    private static final int RECOVERY_ROUNDS = 5;
+    private static final long RECOVERY_RETRY_MS = 5000;
+
+    private final GroupCommitLog log;
+    private final List<Step> inFlight;
+
+    public ExchangeCoordinatorLog(Path file) throws IOException {
+        this.log = new GroupCommitLog(file);
+
+        //Compact on startup: keep only the latest step of exchanges that were never settled
+        Map<String, Step> latest = new LinkedHashMap<>();
+        for (String record : log.readAll()) {
+            Step step = Step.parse(record);
+            if (step != null) {
+                latest.put(step.transactionID, step);
+            }
+        }
+        this.inFlight = new ArrayList<>();
+        List<String> retained = new ArrayList<>();
+        for (Step step : latest.values()) {
+            if (!step.state.equals("END") && !step.state.equals("ABORTED")) {
+                inFlight.add(step);
+                retained.add(step.toString());
+            }
+        }
+        log.rewrite(retained);
+    }
+
+    //Must be durable before the home side is applied, or a crash could leave it applied with no record of why
+    public void begin(String transactionID, Purchase oldPurchase, Purchase newPurchase) {
+        append(transactionID, "BEGIN", oldPurchase, newPurchase);
+    }
+
+    //Must be durable before the old item's store is asked to take it back
+    public void returning(String transactionID, Purchase oldPurchase, Purchase newPurchase) {
+        append(transactionID, "RETURNING", oldPurchase, newPurchase);
+    }
+
+    public void aborting(String transactionID, Purchase oldPurchase, Purchase newPurchase) {
+        append(transactionID, "ABORTING", oldPurchase, newPurchase);
+    }
+
+    public void committing(String transactionID, Purchase oldPurchase, Purchase newPurchase) {
+        append(transactionID, "COMMITTING", oldPurchase, newPurchase);
+    }
+
+    public void end(String transactionID) {
+        log.append(transactionID + "|END");
+    }
+
+    public void aborted(String transactionID) {
+        log.append(transactionID + "|ABORTED");
+    }
+
+    public void close() {
+        log.close();
+    }
+
+    private void append(String transactionID, String state, Purchase oldPurchase, Purchase newPurchase) {
+        log.append(new Step(transactionID, state, oldPurchase, newPurchase).toString()).join();
+    }
+
+    //Drives every exchange left in flight by a previous run to an end state, retrying while peers are unreachable.
+    //openExchanges are the exchanges whose home side the recovered store state shows as applied.
+    public void recover(UDPCommunicator udpComm, StoreServerImpl server, Set<String> openExchanges) {
+        List<Step> pending = new ArrayList<>(inFlight);
+        inFlight.clear();
+
+        for (int round = 0; round < RECOVERY_ROUNDS && !pending.isEmpty(); round++) {
+            if (round > 0) {
+                try {
+                    Thread.sleep(RECOVERY_RETRY_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            Iterator<Step> it = pending.iterator();
+            while (it.hasNext()) {
+                if (resolve(it.next(), udpComm, server, openExchanges)) {
+                    it.remove();
+                }
+            }
+        }
+
+        for (Step step : pending) {
+            System.err.println("Exchange " + step.transactionID + " still unresolved after recovery (" + step.state + ")");
+        }
+    }
+
+    private boolean resolve(Step step, UDPCommunicator udpComm, StoreServerImpl server, Set<String> openExchanges) {
+        boolean open = openExchanges.contains(step.transactionID);
+        switch (step.state) {
+            case "BEGIN":
+            case "ABORTING": {
+                if (open) {
+                    server.undoExchange(step.transactionID, step.oldPurchase, step.newPurchase);
+                    openExchanges.remove(step.transactionID);
+                }
+                if (step.state.equals("ABORTING")) {
+                    UDPResponse undone = udpComm.sendMarshalledRequest(step.oldItemStore,
+                        new UDPRequest("EXCHANGE_UNDO_RETURN", step.customerID, step.oldItemID, null, step.transactionID));
+                    if (!undone.isSuccess()) {
+                        return false;
+                    }
+                }
+                UDPResponse rollback = udpComm.sendMarshalledRequest(step.newItemStore,
+                    new UDPRequest("EXCHANGE_ROLLBACK", step.customerID, step.newItemID, step.transactionID));
+                if (!rollback.isSuccess()) {
+                    return false;
+                }
+                aborted(step.transactionID);
+                return true;
+            }
+            case "RETURNING": {
+                UDPResponse returned = udpComm.sendMarshalledRequest(step.oldItemStore,
+                    new UDPRequest("EXCHANGE_RETURN", step.customerID, step.oldItemID, null, step.transactionID));
+                if (!returned.isSuccess()) {
+                    return false;
+                }
+                return commit(step, udpComm, server, openExchanges, open);
+            }
+            case "COMMITTING":
+                return commit(step, udpComm, server, openExchanges, open);
+            default:
+                return true;
+        }
+    }
+
+    private boolean commit(Step step, UDPCommunicator udpComm, StoreServerImpl server, Set<String> openExchanges, boolean open) {
+        UDPResponse committed = udpComm.sendMarshalledRequest(step.newItemStore,
+            new UDPRequest("EXCHANGE_COMMIT", step.customerID, step.newItemID, step.transactionID));
+        if ("RESERVATION_LOST".equals(committed.getErrorCode())) {
+            if (!open) {
+                if (!server.reopenExchange(step.transactionID, step.newPurchase)) {
+                    System.err.println("Exchange " + step.transactionID + " lost its reserved item after the new item was returned");
+                    return false;
+                }
+                openExchanges.add(step.transactionID);
+            }
+            aborting(step.transactionID, step.oldPurchase, step.newPurchase);
+            Step abort = new Step(step.transactionID, "ABORTING", step.oldPurchase, step.newPurchase);
+            return resolve(abort, udpComm, server, openExchanges);
+        }
+        if (!committed.isSuccess()) {
+            return false;
+        }
+        if (open) {
+            server.completeExchange(step.transactionID, step.newPurchase);
+            openExchanges.remove(step.transactionID);
+        }
+        end(step.transactionID);
+        return true;
+    }
+
+    private static class Step {
+        final String transactionID;
+        final String state;
+        final String customerID;
+        final String newItemID;
+        final String oldItemID;
+        final String newItemStore;
+        final String oldItemStore;
+        final Purchase oldPurchase;
+        final Purchase newPurchase;
+
+        Step(String transactionID, String state, Purchase oldPurchase, Purchase newPurchase) {
+            this(transactionID, state, oldPurchase.getCustomerID(), newPurchase.getItemID(), oldPurchase.getItemID(),
+                 newPurchase.getItemID().substring(0, 2), oldPurchase.getItemID().substring(0, 2), oldPurchase, newPurchase);
+        }
+
+        Step(String transactionID, String state, String customerID, String newItemID, String oldItemID,
+             String newItemStore, String oldItemStore, Purchase oldPurchase, Purchase newPurchase) {
+            this.transactionID = transactionID;
+            this.state = state;
+            this.customerID = customerID;
+            this.newItemID = newItemID;
+            this.oldItemID = oldItemID;
+            this.newItemStore = newItemStore;
+            this.oldItemStore = oldItemStore;
+            this.oldPurchase = oldPurchase;
+            this.newPurchase = newPurchase;
+        }
+
+        //END and ABORTED records carry only the transaction and its state; every other step carries both purchases
+        static Step parse(String record) {
+            String[] parts = record.split("\\|", -1);
+            if (parts.length == 2) {
+                return new Step(parts[0], parts[1], null, null, null, null, null, null, null);
+            }
+            if (parts.length == 11) {
+                Purchase oldPurchase = new Purchase(parts[2], parts[4], LocalDate.ofEpochDay(Long.parseLong(parts[7])),
+                                                    BudgetLedger.fromCents(Long.parseLong(parts[8])));
+                Purchase newPurchase = new Purchase(parts[2], parts[3], LocalDate.ofEpochDay(Long.parseLong(parts[9])),
+                                                    BudgetLedger.fromCents(Long.parseLong(parts[10])));
+                return new Step(parts[0], parts[1], parts[2], parts[3], parts[4], parts[5], parts[6], oldPurchase, newPurchase);
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return transactionID + "|" + state + "|" + customerID + "|" + newItemID + "|" + oldItemID + "|" +
+                   newItemStore + "|" + oldItemStore + "|" +
+                   oldPurchase.getPurchaseDate().toEpochDay() + "|" + BudgetLedger.toCents(oldPurchase.getPrice()) + "|" +
+                   newPurchase.getPurchaseDate().toEpochDay() + "|" + BudgetLedger.toCents(newPurchase.getPrice());
+        }
+    }
+}
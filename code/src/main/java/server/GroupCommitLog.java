@@ -0,0 +1,187 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+//Append-only file of text records. A single writer thread drains every record queued since its last
+//flush, writes them together and fsyncs once, so concurrent appenders share the cost of each fsync.
+public class GroupCommitLog {
+    private Path file;
+    private FileChannel channel;
+    private final BlockingQueue<PendingRecord> queue;
+    private volatile boolean closed;
+    private final AtomicBoolean closing;
+
+    public GroupCommitLog(Path file) throws IOException {
+        this.file = file;
+        this.channel = openChannel();
+        this.queue = new LinkedBlockingQueue<>();
+        this.closing = new AtomicBoolean();
+
+        Thread writer = new Thread(this::writeLoop, file.getFileName() + "-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    //Completes once the record is on disk
+    public CompletableFuture<Void> append(String record) {
+        PendingRecord pending = new PendingRecord(record);
+        if (closed) {
+            pending.durable.completeExceptionally(new IOException("Log closed: " + file));
+            return pending.durable;
+        }
+        queue.add(pending);
+        return pending.durable;
+    }
+
+    //Writes every record appended before the call, then stops the writer and closes the file
+    public void close() {
+        if (!closing.compareAndSet(false, true)) {
+            return;
+        }
+        PendingRecord pending = new PendingRecord(null, null);
+        queue.add(pending);
+        pending.durable.exceptionally(e -> null).join();
+    }
+
+    //Switches to a new file; records appended before the call stay in the old one. Completes once the switch is done.
+    public CompletableFuture<Void> roll(Path next) {
+        PendingRecord pending = new PendingRecord(null, next);
+        queue.add(pending);
+        return pending.durable;
+    }
+
+    public synchronized List<String> readAll() throws IOException {
+        if (!Files.exists(file)) {
+            return new ArrayList<>();
+        }
+        return readRecords(file);
+    }
+
+    //Every complete record in the file. A crash in the middle of a write can leave the last record without its
+    //newline; that record was never acknowledged as durable, so it is dropped rather than replayed truncated.
+    public static List<String> readRecords(Path file) throws IOException {
+        byte[] data = Files.readAllBytes(file);
+        int end = data.length;
+        while (end > 0 && data[end - 1] != '\n') {
+            end--;
+        }
+        List<String> records = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < end; i++) {
+            if (data[i] == '\n') {
+                records.add(new String(data, start, i - start, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        return records;
+    }
+
+    //Atomically replaces the log contents; records still queued are written after the new contents
+    public synchronized void rewrite(List<String> records) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, records, StandardCharsets.UTF_8);
+        try (FileChannel tempChannel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            tempChannel.force(true);
+        }
+        channel.close();
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = openChannel();
+    }
+
+    private FileChannel openChannel() throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void writeLoop() {
+        List<PendingRecord> batch = new ArrayList<>();
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                flush(batch);
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private synchronized void flush(List<PendingRecord> batch) {
+        List<PendingRecord> records = new ArrayList<>();
+        try {
+            for (PendingRecord pending : batch) {
+                if (closed) {
+                    pending.durable.completeExceptionally(new IOException("Log closed: " + file));
+                    continue;
+                }
+                if (pending.record == null && pending.rollTo == null) {
+                    write(records);
+                    records.clear();
+                    channel.close();
+                    closed = true;
+                    pending.durable.complete(null);
+                    continue;
+                }
+                if (pending.rollTo == null) {
+                    records.add(pending);
+                    continue;
+                }
+                write(records);
+                records.clear();
+                channel.close();
+                file = pending.rollTo;
+                channel = openChannel();
+                pending.durable.complete(null);
+            }
+            write(records);
+        } catch (IOException e) {
+            for (PendingRecord pending : batch) {
+                pending.durable.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void write(List<PendingRecord> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        StringBuilder lines = new StringBuilder();
+        for (PendingRecord pending : records) {
+            lines.append(pending.record).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+        for (PendingRecord pending : records) {
+            pending.durable.complete(null);
+        }
+    }
+
+    private static class PendingRecord {
+        final String record;
+        final Path rollTo;
+        final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+        PendingRecord(String record) {
+            this(record, null);
+        }
+
+        PendingRecord(String record, Path rollTo) {
+            this.record = record;
+            this.rollTo = rollTo;
+        }
+    }
+}
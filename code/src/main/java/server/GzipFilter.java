@@ -0,0 +1,196 @@
+package server;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+//Gzips HTTP responses for clients that send "Accept-Encoding: gzip". A response body is held back until it
+//reaches the threshold (-Ddsms.http.gzipThreshold, default 4096 bytes): smaller ones go out as they are, larger
+//ones are compressed at the fastest level and sent chunked. Responses the handler already encoded are left alone.
+public class GzipFilter extends Filter {
+    private final int threshold;
+
+    public GzipFilter() {
+        this(Integer.getInteger("dsms.http.gzipThreshold", 4096));
+    }
+
+    public GzipFilter(int threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        if (!acceptsGzip(exchange.getRequestHeaders())) {
+            chain.doFilter(exchange);
+            return;
+        }
+        CompressingExchange compressing = new CompressingExchange(exchange, threshold);
+        try {
+            chain.doFilter(compressing);
+        } finally {
+            compressing.finish();
+        }
+    }
+
+    @Override
+    public String description() {
+        return "gzip responses of " + threshold + " bytes or more";
+    }
+
+    private static boolean acceptsGzip(Headers headers) {
+        List<String> values = headers.get("Accept-Encoding");
+        if (values == null) {
+            return false;
+        }
+        for (String value : values) {
+            for (String coding : value.split(",")) {
+                String[] parts = coding.trim().split(";");
+                if (parts[0].trim().equalsIgnoreCase("gzip") && !(parts.length > 1 && parts[1].trim().matches("q=0(\\.0*)?"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    //Passes everything through to the real exchange except the response headers and body, which it holds
+    //until it knows whether the body is large enough to compress
+    private static class CompressingExchange extends HttpExchange {
+        private final HttpExchange exchange;
+        private final int threshold;
+        private final ByteArrayOutputStream pending;
+        private int status;
+        private boolean deferred;
+        private OutputStream gzip;
+        private boolean finished;
+
+        CompressingExchange(HttpExchange exchange, int threshold) {
+            this.exchange = exchange;
+            this.threshold = threshold;
+            this.pending = new ByteArrayOutputStream();
+        }
+
+        @Override
+        public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+            boolean small = responseLength > 0 && responseLength < threshold;
+            if (responseLength == -1 || small || exchange.getResponseHeaders().containsKey("Content-Encoding")) {
+                exchange.sendResponseHeaders(rCode, responseLength);
+                return;
+            }
+            status = rCode;
+            deferred = true;
+        }
+
+        @Override
+        public OutputStream getResponseBody() {
+            if (!deferred) {
+                return exchange.getResponseBody();
+            }
+            return new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    if (gzip != null) {
+                        gzip.write(b, off, len);
+                        return;
+                    }
+                    pending.write(b, off, len);
+                    if (pending.size() >= threshold) {
+                        startCompressing();
+                    }
+                }
+
+                @Override
+                public void close() throws IOException {
+                    finish();
+                }
+            };
+        }
+
+        private void startCompressing() throws IOException {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            exchange.getResponseHeaders().add("Vary", "Accept-Encoding");
+            exchange.sendResponseHeaders(status, 0);
+            gzip = new GZIPOutputStream(exchange.getResponseBody(), 8192) {
+                {
+                    def.setLevel(Deflater.BEST_SPEED);
+                }
+            };
+            pending.writeTo(gzip);
+            pending.reset();
+        }
+
+        //Sends whatever is still held back; safe to call more than once
+        void finish() throws IOException {
+            if (!deferred || finished) {
+                return;
+            }
+            finished = true;
+            if (gzip != null) {
+                gzip.close();
+                return;
+            }
+            exchange.sendResponseHeaders(status, pending.size() == 0 ? -1 : pending.size());
+            try (OutputStream out = exchange.getResponseBody()) {
+                pending.writeTo(out);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                finish();
+            } catch (IOException e) {
+                //The client went away; closing the exchange below releases the connection
+            }
+            exchange.close();
+        }
+
+        @Override
+        public int getResponseCode() {
+            return deferred ? status : exchange.getResponseCode();
+        }
+
+        @Override
+        public Headers getRequestHeaders() { return exchange.getRequestHeaders(); }
+        @Override
+        public Headers getResponseHeaders() { return exchange.getResponseHeaders(); }
+        @Override
+        public URI getRequestURI() { return exchange.getRequestURI(); }
+        @Override
+        public String getRequestMethod() { return exchange.getRequestMethod(); }
+        @Override
+        public HttpContext getHttpContext() { return exchange.getHttpContext(); }
+        @Override
+        public InputStream getRequestBody() { return exchange.getRequestBody(); }
+        @Override
+        public InetSocketAddress getRemoteAddress() { return exchange.getRemoteAddress(); }
+        @Override
+        public InetSocketAddress getLocalAddress() { return exchange.getLocalAddress(); }
+        @Override
+        public String getProtocol() { return exchange.getProtocol(); }
+        @Override
+        public Object getAttribute(String name) { return exchange.getAttribute(name); }
+        @Override
+        public void setAttribute(String name, Object value) { exchange.setAttribute(name, value); }
+        @Override
+        public void setStreams(InputStream i, OutputStream o) { exchange.setStreams(i, o); }
+        @Override
+        public HttpPrincipal getPrincipal() { return exchange.getPrincipal(); }
+    }
+}
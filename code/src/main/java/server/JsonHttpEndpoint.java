@@ -0,0 +1,175 @@
+package server;
+
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import interfaces.StoreServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import utils.Json;
+
+//Plain HTTP binding of the StoreServer operations, for clients that do not need SOAP.
+//  GET or POST /api/<operation>?<parameter>=<value>&...   (a POST may send the parameters form-encoded in its body)
+//Parameter names are the SOAP ones, e.g. /api/findItem?customerID=QCU1111&itemName=Coffee. The reply is
+//{"result":"..."} with the operation's usual message, or {"error":"..."} with status 400 or 404 if the
+//request itself is malformed. Large replies are gzipped for clients that accept it (see GzipFilter).
+public class JsonHttpEndpoint {
+    private static final String CONTEXT = "/api/";
+
+    private final StoreServer store;
+    private HttpServer httpServer;
+
+    public JsonHttpEndpoint(StoreServer store) {
+        this.store = store;
+    }
+
+    //The JDK HTTP server leaves Nagle's algorithm on, so each response body waits for the client's delayed ACK
+    //of the headers (about 40 ms a call). The setting is read when the JVM's first HTTP server is created, so
+    //call this before publishing any endpoint; it helps the SOAP endpoints the same way.
+    public static void enableNoDelay() {
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    public void start(int port, Executor executor) throws IOException {
+        enableNoDelay();
+        httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+        HttpContext context = httpServer.createContext(CONTEXT, this::handle);
+        context.getFilters().add(new OverloadFilter());
+        context.getFilters().add(new GzipFilter());
+        httpServer.setExecutor(executor);
+        httpServer.start();
+    }
+
+    public void stop() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String operation = exchange.getRequestURI().getPath().substring(CONTEXT.length());
+            String result;
+            try {
+                Map<String, String> params = new HashMap<>();
+                parseParams(exchange.getRequestURI().getRawQuery(), params);
+                if ("POST".equals(exchange.getRequestMethod())) {
+                    parseParams(new String(readBody(exchange.getRequestBody()), StandardCharsets.UTF_8), params);
+                }
+                result = invoke(operation, params);
+            } catch (IllegalArgumentException e) {
+                reply(exchange, 400, Json.object("error", e.getMessage()));
+                return;
+            }
+            if (result == null) {
+                reply(exchange, 404, Json.object("error", "Unknown operation: " + operation));
+            } else {
+                reply(exchange, 200, Json.object("result", result));
+            }
+        } catch (RuntimeException e) {
+            reply(exchange, 500, Json.object("error", "Processing error: " + e.getMessage()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    //Null if there is no such operation
+    private String invoke(String operation, Map<String, String> p) {
+        switch (operation) {
+            case "addItem":
+                return store.addItem(param(p, "managerID"), param(p, "itemID"), param(p, "itemName"),
+                                     intParam(p, "quantity"), doubleParam(p, "price"));
+            case "removeItem":
+                return store.removeItem(param(p, "managerID"), param(p, "itemID"), intParam(p, "quantity"));
+            case "addItems":
+                return store.addItems(param(p, "managerID"), param(p, "items"));
+            case "removeItems":
+                return store.removeItems(param(p, "managerID"), param(p, "items"));
+            case "listItemAvailability":
+                return store.listItemAvailability(param(p, "managerID"));
+            case "purchaseItem":
+                return store.purchaseItem(param(p, "customerID"), param(p, "itemID"), intParam(p, "quantity"),
+                                          param(p, "dateOfPurchase"));
+            case "purchaseItems":
+                return store.purchaseItems(param(p, "customerID"), param(p, "items"), param(p, "dateOfPurchase"));
+            case "findItem":
+                return store.findItem(param(p, "customerID"), param(p, "itemName"));
+            case "returnItem":
+                return store.returnItem(param(p, "customerID"), param(p, "itemID"), param(p, "dateOfReturn"));
+            case "exchangeItem":
+                return store.exchangeItem(param(p, "customerID"), param(p, "newItemID"), param(p, "oldItemID"));
+            case "addToWaitlist":
+                return store.addToWaitlist(param(p, "customerID"), param(p, "itemID"));
+            case "getStorePrefix":
+                return store.getStorePrefix();
+            default:
+                return null;
+        }
+    }
+
+    private static String param(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing parameter: " + name);
+        }
+        return value;
+    }
+
+    private static int intParam(Map<String, String> params, String name) {
+        try {
+            return Integer.parseInt(param(params, name));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + params.get(name));
+        }
+    }
+
+    private static double doubleParam(Map<String, String> params, String name) {
+        try {
+            return Double.parseDouble(param(params, name));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + params.get(name));
+        }
+    }
+
+    private static void parseParams(String encoded, Map<String, String> params) throws UnsupportedEncodingException {
+        if (encoded == null || encoded.isEmpty()) {
+            return;
+        }
+        for (String pair : encoded.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+    }
+
+    private static byte[] readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+            body.write(chunk, 0, read);
+        }
+        return body.toByteArray();
+    }
+
+    private static void reply(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
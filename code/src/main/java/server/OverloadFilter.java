@@ -0,0 +1,59 @@
+package server;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.channels.SocketChannel;
+
+//Answers "503 Service Unavailable" with a Retry-After header, without running the handler, for requests the
+//server's executor turned away because every worker was busy and its queue full. The executor passes such
+//requests to shed() on a thread of its own, never the HTTP dispatcher, so accepting connections is not held up.
+//Must be the first filter on the context.
+public class OverloadFilter extends Filter {
+    private static final ThreadLocal<Boolean> SHEDDING = new ThreadLocal<>();
+
+    //Runs a request the executor rejected; the filter turns it into a 503 as soon as its headers are read
+    public static void shed(Runnable request) {
+        SHEDDING.set(Boolean.TRUE);
+        try {
+            request.run();
+        } finally {
+            SHEDDING.remove();
+        }
+    }
+
+    //Closes the connection of a request that will not even get a 503, so its client fails at once instead of
+    //waiting for a timeout. The JDK's HTTP server keeps the connection in a private field; where it cannot be
+    //reached (JDK 9+ without --add-opens jdk.httpserver/sun.net.httpserver=ALL-UNNAMED) the request is just dropped.
+    public static void discard(Runnable request) {
+        for (Field field : request.getClass().getDeclaredFields()) {
+            if (!SocketChannel.class.isAssignableFrom(field.getType())) {
+                continue;
+            }
+            try {
+                field.setAccessible(true);
+                ((SocketChannel) field.get(request)).close();
+            } catch (IOException | ReflectiveOperationException | RuntimeException e) {
+                //Nothing more to do; the client times out
+            }
+            return;
+        }
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        if (SHEDDING.get() == null) {
+            chain.doFilter(exchange);
+            return;
+        }
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        exchange.sendResponseHeaders(503, -1);
+        exchange.close();
+    }
+
+    @Override
+    public String description() {
+        return "503 for requests rejected by an overloaded executor";
+    }
+}
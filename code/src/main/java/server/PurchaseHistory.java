@@ -0,0 +1,331 @@
+package server;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import models.Purchase;
+
+//Purchase records stored column-wise in one partition per purchase day. Only purchases still inside the
+//return window are kept; older partitions are swept into a cold archive that just remembers which
+//(customer, item) pairs were bought so expired returns can still be told apart from unknown ones.
+public class PurchaseHistory {
+    private static final List<String> STORES = Arrays.asList("QC", "ON", "BC");
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("ddMMyyyy");
+
+    //epoch day -> purchases made that day
+    private final Map<Integer, DayPartition> partitions;
+    //customerID -> itemID -> handles of live purchases of that item, oldest first
+    private final Map<String, Map<String, HandleList>> index;
+    //customerID -> itemIDs whose purchases have all aged out of the return window
+    private final Map<String, Set<String>> archive;
+    private final Map<String, AtomicIntegerArray> storeCounts;
+    private final Map<String, String> interned;
+    private final AtomicInteger lastSweepDay;
+
+    public PurchaseHistory() {
+        this.partitions = new ConcurrentHashMap<>();
+        this.index = new ConcurrentHashMap<>();
+        this.archive = new ConcurrentHashMap<>();
+        this.storeCounts = new ConcurrentHashMap<>();
+        this.interned = new ConcurrentHashMap<>();
+        this.lastSweepDay = new AtomicInteger((int) LocalDate.now().toEpochDay());
+    }
+
+    public void add(Purchase purchase) {
+        sweepIfNewDay();
+
+        String customerID = intern(purchase.getCustomerID());
+        String itemID = intern(purchase.getItemID());
+        int day = (int) purchase.getPurchaseDate().toEpochDay();
+
+        int store = storeIndex(itemID);
+        if (store >= 0) {
+            //The remote store limit counts every item still held, including ones past the return window
+            counts(customerID).incrementAndGet(store);
+        }
+
+        if (day + Purchase.RETURN_WINDOW_DAYS < lastSweepDay.get()) {
+            archive(customerID, itemID);
+            return;
+        }
+
+        DayPartition partition = partitions.computeIfAbsent(day, k -> new DayPartition());
+        int slot = partition.append(customerID, itemID, BudgetLedger.toCents(purchase.getPrice()));
+        if (slot < 0) {
+            //Partition was swept while we were appending
+            archive(customerID, itemID);
+            return;
+        }
+
+        HandleList handles = index
+            .computeIfAbsent(customerID, k -> new ConcurrentHashMap<>())
+            .computeIfAbsent(itemID, k -> new HandleList());
+        synchronized (handles) {
+            handles.insert(handle(day, slot));
+        }
+    }
+
+    //Returns false if the purchase was already removed, e.g. by a concurrent return of the same item
+    public boolean remove(Purchase purchase) {
+        HandleList handles = handles(purchase.getCustomerID(), purchase.getItemID());
+        if (handles == null) {
+            return false;
+        }
+
+        int day = (int) purchase.getPurchaseDate().toEpochDay();
+        long priceCents = BudgetLedger.toCents(purchase.getPrice());
+        synchronized (handles) {
+            for (int i = 0; i < handles.size; i++) {
+                long handle = handles.values[i];
+                if (dayOf(handle) != day) {
+                    continue;
+                }
+                DayPartition partition = partitions.get(day);
+                if (partition != null && partition.priceCents(slotOf(handle)) == priceCents) {
+                    handles.removeAt(i);
+                    int store = storeIndex(purchase.getItemID());
+                    if (store >= 0) {
+                        counts(purchase.getCustomerID()).decrementAndGet(store);
+                    }
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    //Reloads purchases a snapshot kept only as a count, since they had left the return window
+    public void restoreArchived(String customerID, String itemID, int count) {
+        customerID = intern(customerID);
+        itemID = intern(itemID);
+        int store = storeIndex(itemID);
+        if (store >= 0) {
+            counts(customerID).addAndGet(store, count);
+        }
+        archive(customerID, itemID);
+    }
+
+    public boolean hasHistory(String customerID) {
+        return index.containsKey(customerID) || archive.containsKey(customerID);
+    }
+
+    public boolean hasPurchase(String customerID, String itemID) {
+        HandleList handles = handles(customerID, itemID);
+        if (handles != null) {
+            synchronized (handles) {
+                if (handles.size > 0) {
+                    return true;
+                }
+            }
+        }
+        Set<String> archivedItems = archive.get(customerID);
+        return archivedItems != null && archivedItems.contains(itemID);
+    }
+
+    //Oldest purchase of the item that is still inside the return window on the given date, or null
+    public Purchase findReturnable(String customerID, String itemID, String date) {
+        HandleList handles = handles(customerID, itemID);
+        if (handles == null) {
+            return null;
+        }
+
+        LocalDate returnDate = LocalDate.parse(date, DATE_FORMAT);
+        int returnDay = (int) returnDate.toEpochDay();
+        synchronized (handles) {
+            for (int i = 0; i < handles.size; i++) {
+                long handle = handles.values[i];
+                if (dayOf(handle) + Purchase.RETURN_WINDOW_DAYS >= returnDay) {
+                    Purchase purchase = toPurchase(customerID, itemID, handle);
+                    if (purchase != null) {
+                        return purchase;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    public List<Purchase> get(String customerID) {
+        Map<String, HandleList> byItem = index.get(customerID);
+        if (byItem == null) {
+            return null;
+        }
+        List<Purchase> result = new ArrayList<>();
+        for (Map.Entry<String, HandleList> entry : byItem.entrySet()) {
+            HandleList handles = entry.getValue();
+            synchronized (handles) {
+                for (int i = 0; i < handles.size; i++) {
+                    Purchase purchase = toPurchase(customerID, entry.getKey(), handles.values[i]);
+                    if (purchase != null) {
+                        result.add(purchase);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    public boolean hasPurchasedFrom(String customerID, String storePrefix) {
+        int store = STORES.indexOf(storePrefix);
+        if (store < 0) {
+            return false;
+        }
+        AtomicIntegerArray counts = storeCounts.get(customerID);
+        return counts != null && counts.get(store) > 0;
+    }
+
+    //Moves every partition that has left the return window into the archive
+    public void expire(int today) {
+        for (Integer day : new ArrayList<>(partitions.keySet())) {
+            if (day + Purchase.RETURN_WINDOW_DAYS >= today) {
+                continue;
+            }
+            DayPartition partition = partitions.get(day);
+            if (partition == null) {
+                continue;
+            }
+            int rows = partition.seal();
+            for (int slot = 0; slot < rows; slot++) {
+                String customerID = partition.customerIDs[slot];
+                String itemID = partition.itemIDs[slot];
+                HandleList handles = handles(customerID, itemID);
+                if (handles == null) {
+                    continue;
+                }
+                boolean removed;
+                synchronized (handles) {
+                    removed = handles.remove(handle(day, slot));
+                }
+                if (removed) {
+                    archive(customerID, itemID);
+                }
+            }
+            partitions.remove(day);
+        }
+    }
+
+    private void sweepIfNewDay() {
+        int today = (int) LocalDate.now().toEpochDay();
+        int last = lastSweepDay.get();
+        if (today > last && lastSweepDay.compareAndSet(last, today)) {
+            expire(today);
+        }
+    }
+
+    //Null if the handle's partition has already been expired; an add racing the sweep can leave such a handle
+    private Purchase toPurchase(String customerID, String itemID, long handle) {
+        int day = dayOf(handle);
+        DayPartition partition = partitions.get(day);
+        if (partition == null) {
+            return null;
+        }
+        double price = BudgetLedger.fromCents(partition.priceCents(slotOf(handle)));
+        return new Purchase(customerID, itemID, LocalDate.ofEpochDay(day), price);
+    }
+
+    private void archive(String customerID, String itemID) {
+        archive.computeIfAbsent(customerID, k -> ConcurrentHashMap.newKeySet()).add(itemID);
+    }
+
+    private HandleList handles(String customerID, String itemID) {
+        Map<String, HandleList> byItem = index.get(customerID);
+        return byItem == null ? null : byItem.get(itemID);
+    }
+
+    private AtomicIntegerArray counts(String customerID) {
+        return storeCounts.computeIfAbsent(customerID, k -> new AtomicIntegerArray(STORES.size()));
+    }
+
+    private String intern(String id) {
+        String existing = interned.putIfAbsent(id, id);
+        return existing != null ? existing : id;
+    }
+
+    private static int storeIndex(String itemID) {
+        return STORES.indexOf(itemID.substring(0, 2));
+    }
+
+    private static long handle(int day, int slot) {
+        return ((long) day << 32) | (slot & 0xFFFFFFFFL);
+    }
+
+    private static int dayOf(long handle) {
+        return (int) (handle >> 32);
+    }
+
+    private static int slotOf(long handle) {
+        return (int) handle;
+    }
+
+    //All purchases made on one day, one array per field
+    private static class DayPartition {
+        String[] customerIDs = new String[16];
+        String[] itemIDs = new String[16];
+        long[] priceCents = new long[16];
+        int size;
+        boolean sealed;
+
+        synchronized int append(String customerID, String itemID, long cents) {
+            if (sealed) {
+                return -1;
+            }
+            if (size == priceCents.length) {
+                int capacity = size * 2;
+                customerIDs = Arrays.copyOf(customerIDs, capacity);
+                itemIDs = Arrays.copyOf(itemIDs, capacity);
+                priceCents = Arrays.copyOf(priceCents, capacity);
+            }
+            customerIDs[size] = customerID;
+            itemIDs[size] = itemID;
+            priceCents[size] = cents;
+            return size++;
+        }
+
+        synchronized long priceCents(int slot) {
+            return priceCents[slot];
+        }
+
+        //Stops further appends and returns the final row count
+        synchronized int seal() {
+            sealed = true;
+            return size;
+        }
+    }
+
+    //Sorted array of purchase handles; a handle orders by purchase day, then by slot
+    private static class HandleList {
+        long[] values = new long[2];
+        int size;
+
+        void insert(long handle) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            int pos = size;
+            while (pos > 0 && values[pos - 1] > handle) {
+                values[pos] = values[pos - 1];
+                pos--;
+            }
+            values[pos] = handle;
+            size++;
+        }
+
+        boolean remove(long handle) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == handle) {
+                    removeAt(i);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void removeAt(int i) {
+            System.arraycopy(values, i + 1, values, i, size - i - 1);
+            size--;
+        }
+    }
+}
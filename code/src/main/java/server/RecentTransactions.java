@@ -0,0 +1,34 @@
+package server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//Transaction IDs seen recently, forgotten after a retention period; used to make retried UDP operations idempotent
+public class RecentTransactions {
+    private final Map<String, Long> seenAt;
+    private final long retentionMillis;
+
+    public RecentTransactions(long retentionMillis) {
+        this.seenAt = new LinkedHashMap<>();
+        this.retentionMillis = retentionMillis;
+    }
+
+    //Returns false if the ID was already present
+    public synchronized boolean add(String transactionID) {
+        long now = System.currentTimeMillis();
+        Iterator<Long> oldest = seenAt.values().iterator();
+        while (oldest.hasNext() && now - oldest.next() > retentionMillis) {
+            oldest.remove();
+        }
+        return seenAt.putIfAbsent(transactionID, now) == null;
+    }
+
+    public synchronized boolean contains(String transactionID) {
+        return seenAt.containsKey(transactionID);
+    }
+
+    public synchronized boolean remove(String transactionID) {
+        return seenAt.remove(transactionID) != null;
+    }
+}
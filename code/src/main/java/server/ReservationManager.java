@@ -0,0 +1,161 @@
+package server;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+//Stock held for in-flight exchanges. Each reservation is a lease: if the coordinator neither commits,
+//rolls back nor renews it in time, the reaper releases the unit back to available stock.
+//Reservations and expiries are written to the store's write-ahead log, so a restart neither loses the stock
+//held for a pending exchange nor forgets that a lease ran out.
+public class ReservationManager {
+    public static final long DEFAULT_LEASE_MS = 30000;
+    private static final long REAP_INTERVAL_MS = 1000;
+    static final long EXPIRED_RETENTION_MS = 24 * 60 * 60 * 1000L;
+
+    private final Map<String, Reservation> reservations;
+    private final RecentTransactions expired;
+    private final long leaseMillis;
+    private final WriteAheadLog wal;
+    private final Consumer<Reservation> onExpire;
+    private final ScheduledExecutorService reaper;
+
+    //onExpire releases the unit; it runs in the same log group as the expiry record
+    public ReservationManager(String name, long leaseMillis, WriteAheadLog wal, Consumer<Reservation> onExpire) {
+        this.reservations = new ConcurrentHashMap<>();
+        this.expired = new RecentTransactions(EXPIRED_RETENTION_MS);
+        this.leaseMillis = leaseMillis;
+        this.wal = wal;
+        this.onExpire = onExpire;
+        this.reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, name + "-reservation-reaper");
+            t.setDaemon(true);
+            return t;
+        });
+        reaper.scheduleWithFixedDelay(this::releaseExpired, REAP_INTERVAL_MS, REAP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    //Call within the log group that takes the unit from stock
+    public String reserve(String customerID, String itemID, String oldItemID) {
+        String transactionID = UUID.randomUUID().toString();
+        Reservation reservation = new Reservation(transactionID, customerID, itemID, oldItemID,
+                                                  System.currentTimeMillis() + leaseMillis);
+        reservations.put(transactionID, reservation);
+        wal.reservationMade(reservation);
+        return transactionID;
+    }
+
+    //Reloads the reservations a previous run left pending, each with a fresh lease, and the ones it let expire
+    public void restore(Collection<Reservation> pending, Collection<String> expiredTransactions) {
+        long expiresAt = System.currentTimeMillis() + leaseMillis;
+        for (Reservation reservation : pending) {
+            reservation.expiresAt = expiresAt;
+            reservations.put(reservation.transactionID, reservation);
+        }
+        for (String transactionID : expiredTransactions) {
+            expired.add(transactionID);
+        }
+    }
+
+    //Extends a live lease; false if it already expired or was settled
+    public boolean renew(String transactionID) {
+        Reservation reservation = reservations.get(transactionID);
+        if (reservation == null) {
+            return false;
+        }
+        synchronized (reservation) {
+            if (!reservations.containsKey(transactionID)) {
+                return false;
+            }
+            reservation.expiresAt = System.currentTimeMillis() + leaseMillis;
+            return true;
+        }
+    }
+
+    //Removes and returns the reservation if it was still pending, so each one is settled exactly once
+    public Reservation settle(String transactionID) {
+        if (transactionID == null) {
+            return null;
+        }
+        Reservation reservation = reservations.remove(transactionID);
+        if (reservation != null) {
+            wal.reservationSettled(transactionID);
+        }
+        return reservation;
+    }
+
+    //True if the reservation's lease ran out before it was settled, so its unit went back to stock
+    public boolean isExpired(String transactionID) {
+        return transactionID != null && expired.contains(transactionID);
+    }
+
+    //True exactly once for a reservation whose lease ran out before it was settled
+    public boolean claimExpired(String transactionID) {
+        if (transactionID == null || !expired.remove(transactionID)) {
+            return false;
+        }
+        wal.reservationSettled(transactionID);
+        return true;
+    }
+
+    //Stops the reaper; pending reservations stay in the write-ahead log for the next run
+    public void close() {
+        reaper.shutdownNow();
+    }
+
+    public int pendingCount() {
+        return reservations.size();
+    }
+
+    private void releaseExpired() {
+        long now = System.currentTimeMillis();
+        for (Reservation reservation : reservations.values()) {
+            synchronized (reservation) {
+                if (reservation.expiresAt > now) {
+                    continue;
+                }
+                //Mark it expired before removing it so a racing commit always sees one or the other
+                expired.add(reservation.transactionID);
+                if (!reservations.remove(reservation.transactionID, reservation)) {
+                    expired.remove(reservation.transactionID);
+                    continue;
+                }
+            }
+            try {
+                wal.atomically(() -> {
+                    wal.reservationExpired(reservation.transactionID, now);
+                    onExpire.accept(reservation);
+                    return null;
+                });
+            } catch (Exception e) {
+                System.err.println("Failed to release reservation " + reservation.transactionID + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public static class Reservation {
+        final String transactionID;
+        final String customerID;
+        final String itemID;
+        final String oldItemID;
+        long expiresAt;
+
+        Reservation(String transactionID, String customerID, String itemID, String oldItemID, long expiresAt) {
+            this.transactionID = transactionID;
+            this.customerID = customerID;
+            this.itemID = itemID;
+            this.oldItemID = oldItemID;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getTransactionID() { return transactionID; }
+        public String getCustomerID() { return customerID; }
+        public String getItemID() { return itemID; }
+        public String getOldItemID() { return oldItemID; }
+    }
+}
@@ -5,8 +5,15 @@ import javax.jws.WebMethod;
 import javax.jws.WebParam;
 import interfaces.StoreServer;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import models.Item;
 import models.Purchase;
@@ -21,43 +28,109 @@ import utils.DSMSLogger;
 public class StoreServerImpl implements StoreServer {
     private final String storePrefix;
     private final Map<String, Item> inventory;
-    private final Map<String, Queue<String>> waitlists;
-    private final Map<String, Double> customerBudgets;
-    private final Map<String, List<Purchase>> purchaseHistory;
+    private final Map<String, Waitlist> waitlists;
+    private final BudgetLedger budgetLedger;
+    private final PurchaseHistory purchaseHistory;
     private final Map<String, ReentrantReadWriteLock> itemLocks;
     private final DSMSLogger logger;
     private final UDPCommunicator udpComm;
+    private final ExecutorService waitlistExecutor;
+    private final Set<String> pendingRestocks;
+    private final ExecutorService remoteRequestExecutor;
+    private final ExchangeCoordinatorLog exchangeLog;
+    private final Map<String, Double> remotePrices;
+    private final WriteAheadLog wal;
+    private final StoreSnapshotter snapshotter;
     
     public StoreServerImpl() {
         //Default constructor required by JAX-WS
         this.storePrefix = null;
         this.inventory = null;
         this.waitlists = null;
-        this.customerBudgets = null;
+        this.budgetLedger = null;
         this.purchaseHistory = null;
         this.itemLocks = null;
         this.logger = null;
         this.udpComm = null;
+        this.waitlistExecutor = null;
+        this.pendingRestocks = null;
+        this.remoteRequestExecutor = null;
+        this.exchangeLog = null;
+        this.remotePrices = null;
+        this.wal = null;
+        this.snapshotter = null;
     }
     
     public StoreServerImpl(String storePrefix, int udpPort) {
+        this(storePrefix, udpPort, WriteAheadLog.Durability.valueOf(System.getProperty("dsms.durability", "BATCHED")));
+    }
+    
+    public StoreServerImpl(String storePrefix, int udpPort, WriteAheadLog.Durability durability) {
+        this(storePrefix, udpPort, durability, Paths.get(""));
+    }
+    
+    //Keeps the store's logs, snapshot and write-ahead log in dataDirectory instead of the working directory
+    public StoreServerImpl(String storePrefix, int udpPort, WriteAheadLog.Durability durability, Path dataDirectory) {
+        try {
+            this.wal = new WriteAheadLog(dataDirectory.resolve(storePrefix + "_wal"), durability);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open write-ahead log", e);
+        }
+        this.snapshotter = new StoreSnapshotter(storePrefix, dataDirectory.resolve(storePrefix + "_snapshot.bin"), wal);
+        
         this.storePrefix = storePrefix;
         this.inventory = new ConcurrentHashMap<>();
         this.waitlists = new ConcurrentHashMap<>();
-        this.customerBudgets = new ConcurrentHashMap<>();
-        this.purchaseHistory = new ConcurrentHashMap<>();
+        this.budgetLedger = new BudgetLedger(1000.0, wal::budgetChanged);
+        this.purchaseHistory = new PurchaseHistory();
         this.itemLocks = new ConcurrentHashMap<>();
-        this.logger = new DSMSLogger(storePrefix + "_server.log");
+        this.logger = new DSMSLogger(dataDirectory.resolve(storePrefix + "_server.log").toString());
         this.udpComm = new UDPCommunicator(udpPort, this);
+        this.waitlistExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, storePrefix + "-waitlist");
+            t.setDaemon(true);
+            return t;
+        });
+        this.pendingRestocks = ConcurrentHashMap.newKeySet();
+        this.remotePrices = new ConcurrentHashMap<>();
+        this.remoteRequestExecutor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, storePrefix + "-remote");
+            t.setDaemon(true);
+            return t;
+        });
         
-        initializeSampleData();
+        try {
+            this.exchangeLog = new ExchangeCoordinatorLog(dataDirectory.resolve(storePrefix + "_exchange.log"));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open exchange log", e);
+        }
+        
+        StoreState recovered;
+        try {
+            recovered = snapshotter.recover(logger);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot recover store state", e);
+        }
+        if (recovered.isEmpty()) {
+            initializeSampleData();
+        } else {
+            snapshotter.install(recovered, inventory, waitlists, budgetLedger, purchaseHistory);
+            udpComm.restoreReservations(recovered);
+        }
+        snapshotter.start(Long.getLong("dsms.snapshotIntervalSeconds", 60));
         udpComm.startUDPServer();
+        Set<String> openExchanges = recovered.getOpenExchanges();
+        remoteRequestExecutor.execute(() -> exchangeLog.recover(udpComm, this, openExchanges));
     }
     
     private void initializeSampleData() {
         inventory.put(storePrefix + "1001", new Item(storePrefix + "1001", "Coffee", 10, 5.99));
         inventory.put(storePrefix + "1002", new Item(storePrefix + "1002", "Tea", 15, 3.99));
         inventory.put(storePrefix + "1003", new Item(storePrefix + "1003", "Sugar", 20, 2.50));
+        for (Item item : inventory.values()) {
+            wal.itemChanged(item);
+        }
+        wal.sync();
     }
     
     @Override
@@ -77,24 +150,13 @@ public class StoreServerImpl implements StoreServer {
         lock.writeLock().lock();
         
         try {
-            Item existingItem = inventory.get(itemID);
-            String result;
-            
-            if (existingItem != null) {
-                existingItem.incrementQuantity(quantity);
-                result = "Item quantity updated. New quantity: " + existingItem.getQuantity();
-            } else {
-                inventory.put(itemID, new Item(itemID, itemName, quantity, price));
-                waitlists.put(itemID, new LinkedList<>());
-                result = "Item added successfully";
-            }
-            
-            processWaitlist(itemID);
+            String result = applyAddItem(itemID, itemName, quantity, price);
             logger.logOperation("ADD_ITEM", managerID, itemID + "," + itemName + "," + quantity + "," + price, result);
             return result;
             
         } finally {
             lock.writeLock().unlock();
+            wal.sync();
         }
     }
     
@@ -113,27 +175,166 @@ public class StoreServerImpl implements StoreServer {
         lock.writeLock().lock();
         
         try {
-            Item item = inventory.get(itemID);
-            if (item == null) {
-                String result = "Item not found";
-                logger.logOperation("REMOVE_ITEM", managerID, itemID + "," + quantity, result);
-                return result;
-            }
-            
-            String result;
-            if (quantity >= item.getQuantity()) {
-                item.setQuantity(0);
-                result = "Item quantity set to 0. Item remains in inventory for waitlist.";
-            } else {
-                item.setQuantity(item.getQuantity() - quantity);
-                result = "Item quantity reduced. New quantity: " + item.getQuantity();
-            }
-            
+            String result = applyRemoveItem(itemID, quantity);
             logger.logOperation("REMOVE_ITEM", managerID, itemID + "," + quantity, result);
             return result;
             
         } finally {
             lock.writeLock().unlock();
+            wal.sync();
+        }
+    }
+    
+    @Override
+    @WebMethod
+    public String addItems(
+        @WebParam(name = "managerID") String managerID,
+        @WebParam(name = "items") String items
+    ) {
+        if (!isValidManager(managerID)) {
+            return "Invalid manager ID";
+        }
+        
+        //Entries are "itemID,itemName,quantity,price" separated by ';'
+        List<String[]> entries = parseEntries(items, 4);
+        List<String> itemIDs = new ArrayList<>();
+        for (String[] entry : entries) {
+            itemIDs.add(entry[0]);
+        }
+        
+        StringBuilder result = new StringBuilder();
+        List<ReentrantReadWriteLock> locks = lockItemsInOrder(itemIDs);
+        try {
+            for (String[] entry : entries) {
+                String entryResult;
+                try {
+                    entryResult = entry.length != 4 ? "Invalid entry"
+                        : applyAddItem(entry[0], entry[1], Integer.parseInt(entry[2]), Double.parseDouble(entry[3]));
+                } catch (NumberFormatException e) {
+                    entryResult = "Invalid entry";
+                }
+                result.append(entry[0]).append(": ").append(entryResult).append("\n");
+            }
+        } finally {
+            unlockItems(locks);
+        }
+        wal.sync();
+        
+        logger.logOperation("ADD_ITEMS", managerID, entries.size() + " entries", result.toString().replace("\n", "; "));
+        return result.toString();
+    }
+    
+    @Override
+    @WebMethod
+    public String removeItems(
+        @WebParam(name = "managerID") String managerID,
+        @WebParam(name = "items") String items
+    ) {
+        if (!isValidManager(managerID)) {
+            return "Invalid manager ID";
+        }
+        
+        //Entries are "itemID,quantity" separated by ';'
+        List<String[]> entries = parseEntries(items, 2);
+        List<String> itemIDs = new ArrayList<>();
+        for (String[] entry : entries) {
+            itemIDs.add(entry[0]);
+        }
+        
+        StringBuilder result = new StringBuilder();
+        List<ReentrantReadWriteLock> locks = lockItemsInOrder(itemIDs);
+        try {
+            for (String[] entry : entries) {
+                String entryResult;
+                try {
+                    entryResult = entry.length != 2 ? "Invalid entry" : applyRemoveItem(entry[0], Integer.parseInt(entry[1]));
+                } catch (NumberFormatException e) {
+                    entryResult = "Invalid entry";
+                }
+                result.append(entry[0]).append(": ").append(entryResult).append("\n");
+            }
+        } finally {
+            unlockItems(locks);
+        }
+        wal.sync();
+        
+        logger.logOperation("REMOVE_ITEMS", managerID, entries.size() + " entries", result.toString().replace("\n", "; "));
+        return result.toString();
+    }
+    
+    //Caller holds the item write lock
+    private String applyAddItem(String itemID, String itemName, int quantity, double price) {
+        Item existingItem = inventory.get(itemID);
+        String result;
+        
+        if (existingItem != null) {
+            existingItem.incrementQuantity(quantity);
+            wal.itemChanged(existingItem);
+            result = "Item quantity updated. New quantity: " + existingItem.getQuantity();
+        } else {
+            Item newItem = new Item(itemID, itemName, quantity, price);
+            inventory.put(itemID, newItem);
+            wal.itemChanged(newItem);
+            waitlists.computeIfAbsent(itemID, k -> new Waitlist());
+            result = "Item added successfully";
+        }
+        
+        Waitlist waitlist = waitlists.get(itemID);
+        if (waitlist != null && !waitlist.isEmpty() && inventory.get(itemID).getQuantity() > 0) {
+            scheduleWaitlistFulfillment(itemID);
+            result += ". Waitlist fulfillment scheduled for " + waitlist.size() + " waiting customer(s)";
+        }
+        return result;
+    }
+    
+    //Caller holds the item write lock
+    private String applyRemoveItem(String itemID, int quantity) {
+        Item item = inventory.get(itemID);
+        if (item == null) {
+            return "Item not found";
+        }
+        
+        if (quantity >= item.getQuantity()) {
+            item.setQuantity(0);
+            wal.itemChanged(item);
+            return "Item quantity set to 0. Item remains in inventory for waitlist.";
+        }
+        item.setQuantity(item.getQuantity() - quantity);
+        wal.itemChanged(item);
+        return "Item quantity reduced. New quantity: " + item.getQuantity();
+    }
+    
+    private List<String[]> parseEntries(String entries, int fields) {
+        List<String[]> parsed = new ArrayList<>();
+        if (entries == null) {
+            return parsed;
+        }
+        for (String entry : entries.split(";")) {
+            if (!entry.trim().isEmpty()) {
+                String[] parts = entry.split(",", fields);
+                for (int i = 0; i < parts.length; i++) {
+                    parts[i] = parts[i].trim();
+                }
+                parsed.add(parts);
+            }
+        }
+        return parsed;
+    }
+    
+    //Write-locks the distinct items in sorted order so concurrent batches and exchanges cannot deadlock
+    private List<ReentrantReadWriteLock> lockItemsInOrder(Collection<String> itemIDs) {
+        List<ReentrantReadWriteLock> locks = new ArrayList<>();
+        for (String itemID : new TreeSet<>(itemIDs)) {
+            ReentrantReadWriteLock lock = itemLocks.computeIfAbsent(itemID, k -> new ReentrantReadWriteLock());
+            lock.writeLock().lock();
+            locks.add(lock);
+        }
+        return locks;
+    }
+    
+    private void unlockItems(List<ReentrantReadWriteLock> locks) {
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            locks.get(i).writeLock().unlock();
         }
     }
     
@@ -178,15 +379,198 @@ public class StoreServerImpl implements StoreServer {
             return "Invalid quantity. Must be greater than 0.";
         }
 
-        customerBudgets.putIfAbsent(customerID, 1000.0);
+        budgetLedger.openAccount(customerID);
 
         if (itemID.startsWith(storePrefix)) {
-            return purchaseLocalItem(customerID, itemID, quantity, dateOfPurchase);
+            String result = purchaseLocalItem(customerID, itemID, quantity, dateOfPurchase);
+            wal.sync();
+            return result;
         } else {
             return purchaseRemoteItem(customerID, itemID, quantity, dateOfPurchase);
         }
     }
     
+    @Override
+    @WebMethod
+    public String purchaseItems(
+        @WebParam(name = "customerID") String customerID,
+        @WebParam(name = "items") String items,
+        @WebParam(name = "dateOfPurchase") String dateOfPurchase
+    ) {
+        if (!isValidCustomer(customerID)) {
+            return "Invalid customer ID";
+        }
+        
+        //Entries are "itemID,quantity" separated by ';'; repeated item IDs are merged
+        Map<String, Integer> localLines = new TreeMap<>();
+        Map<String, Integer> remoteLines = new LinkedHashMap<>();
+        for (String[] entry : parseEntries(items, 2)) {
+            if (!entry[0].matches("[A-Z]{2}\\d{4}")) {
+                return "Cart rejected. Invalid item ID " + entry[0];
+            }
+            int quantity;
+            try {
+                quantity = entry.length == 2 ? Integer.parseInt(entry[1]) : 0;
+            } catch (NumberFormatException e) {
+                quantity = 0;
+            }
+            if (quantity <= 0) {
+                return "Cart rejected. Invalid quantity for " + entry[0];
+            }
+            Map<String, Integer> lines = entry[0].startsWith(storePrefix) ? localLines : remoteLines;
+            lines.merge(entry[0], quantity, Integer::sum);
+        }
+        
+        if (localLines.isEmpty() && remoteLines.isEmpty()) {
+            return "Cart is empty";
+        }
+        
+        //Remote lines run concurrently, so two for the same store would each pass its one-purchase limit
+        Set<String> remoteStores = new HashSet<>();
+        for (String itemID : remoteLines.keySet()) {
+            if (!remoteStores.add(itemID.substring(0, 2))) {
+                return "Cart rejected. Purchase limit exceeded for store " + itemID.substring(0, 2);
+            }
+        }
+        
+        budgetLedger.openAccount(customerID);
+        
+        StringBuilder result = new StringBuilder();
+        List<Purchase> localPurchases = new ArrayList<>();
+        if (!localLines.isEmpty()) {
+            String localResult = checkoutLocalItems(customerID, localLines, dateOfPurchase, localPurchases);
+            wal.sync();
+            result.append(localResult).append("\n");
+            if (!localResult.startsWith("Local items purchased")) {
+                return result.toString();
+            }
+        }
+        
+        //Each remote line goes to its owning store concurrently
+        List<Purchase> remotePurchases = Collections.synchronizedList(new ArrayList<>());
+        Map<String, CompletableFuture<String>> remoteResults = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> line : remoteLines.entrySet()) {
+            remoteResults.put(line.getKey(), CompletableFuture.supplyAsync(
+                () -> purchaseRemoteItem(customerID, line.getKey(), line.getValue(), dateOfPurchase, remotePurchases),
+                remoteRequestExecutor));
+        }
+        boolean failed = false;
+        for (Map.Entry<String, CompletableFuture<String>> remoteResult : remoteResults.entrySet()) {
+            String lineResult = remoteResult.getValue().join();
+            failed |= !lineResult.startsWith("Purchase successful");
+            result.append(remoteResult.getKey()).append(": ").append(lineResult).append("\n");
+        }
+        
+        //A cart is bought whole or not at all, so the lines that went through are given back
+        if (failed) {
+            undoLocalCheckout(customerID, localLines, localPurchases);
+            for (Purchase purchase : remotePurchases) {
+                undoRemoteLine(purchase, remoteLines.get(purchase.getItemID()), dateOfPurchase);
+            }
+            wal.sync();
+            result.append("Cart rejected. Purchased lines were given back and refunded\n");
+        }
+        
+        return result.toString();
+    }
+    
+    //All-or-nothing purchase of this store's cart lines with a single budget debit; the purchases made are
+    //added to purchased
+    private String checkoutLocalItems(String customerID, Map<String, Integer> lines, String dateOfPurchase,
+                                      List<Purchase> purchased) {
+        String customerStore = customerID.substring(0, 2);
+        List<ReentrantReadWriteLock> locks = lockItemsInOrder(lines.keySet());
+        
+        try {
+            double totalCost = 0;
+            for (Map.Entry<String, Integer> line : lines.entrySet()) {
+                Item item = inventory.get(line.getKey());
+                if (item == null) {
+                    return "Cart rejected. Item not found: " + line.getKey();
+                }
+                if (item.getQuantity() < line.getValue()) {
+                    return "Cart rejected. Insufficient quantity for " + line.getKey() + 
+                           ". Available: " + item.getQuantity() + ", Requested: " + line.getValue();
+                }
+                totalCost += item.getPrice() * line.getValue();
+            }
+            
+            if (!customerStore.equals(storePrefix) && 
+                (lines.size() > 1 || purchaseHistory.hasPurchasedFrom(customerID, storePrefix))) {
+                return "Cart rejected. Purchase limit exceeded for this store";
+            }
+            
+            if (!budgetLedger.tryDebit(customerID, totalCost)) {
+                return "Cart rejected. Insufficient budget. Available: $" + String.format("%.2f", budgetLedger.getBalance(customerID)) + 
+                       ", Required: $" + String.format("%.2f", totalCost);
+            }
+            
+            StringBuilder bought = new StringBuilder();
+            for (Map.Entry<String, Integer> line : lines.entrySet()) {
+                Item item = inventory.get(line.getKey());
+                double lineCost = item.getPrice() * line.getValue();
+                item.setQuantity(item.getQuantity() - line.getValue());
+                wal.itemChanged(item);
+                Purchase purchase = new Purchase(customerID, line.getKey(), dateOfPurchase, lineCost);
+                addPurchase(purchase);
+                purchased.add(purchase);
+                bought.append("\n").append(line.getKey()).append(": Bought ").append(line.getValue())
+                         .append(" x ").append(item.getItemName()).append(" for $").append(String.format("%.2f", lineCost));
+            }
+            
+            String result = "Local items purchased for $" + String.format("%.2f", totalCost) + 
+                           ". Remaining budget: $" + String.format("%.2f", budgetLedger.getBalance(customerID)) + bought;
+            logger.logOperation("PURCHASE_CART", customerID, lines + "," + dateOfPurchase, result.replace("\n", "; "));
+            return result;
+            
+        } finally {
+            unlockItems(locks);
+        }
+    }
+    
+    //Gives back the lines of a local checkout: restocks them and refunds what they cost. A line the customer
+    //already returned is skipped.
+    private void undoLocalCheckout(String customerID, Map<String, Integer> lines, List<Purchase> purchases) {
+        List<ReentrantReadWriteLock> locks = lockItemsInOrder(lines.keySet());
+        try {
+            wal.atomically(() -> {
+                for (Purchase purchase : purchases) {
+                    if (!removePurchase(purchase)) {
+                        continue;
+                    }
+                    Item item = inventory.get(purchase.getItemID());
+                    if (item != null) {
+                        item.incrementQuantity(lines.get(purchase.getItemID()));
+                        wal.itemChanged(item);
+                    }
+                    budgetLedger.credit(customerID, purchase.getPrice());
+                }
+                return null;
+            });
+        } finally {
+            unlockItems(locks);
+        }
+        logger.logOperation("PURCHASE_CART_UNDO", customerID, lines + "", "Local lines given back");
+    }
+    
+    //Gives back a remote cart line: the item's store restocks it and drops its record of the purchase, and the
+    //customer is refunded here. The store's side is retried in the background if it cannot be reached.
+    private void undoRemoteLine(Purchase purchase, int quantity, String dateOfPurchase) {
+        String customerID = purchase.getCustomerID();
+        String itemID = purchase.getItemID();
+        UDPRequest request = new UDPRequest("PURCHASE_UNDO", customerID, itemID, quantity, dateOfPurchase, purchase.getPrice());
+        UDPResponse response = udpComm.sendMarshalledRequest(itemID.substring(0, 2), request);
+        if (!response.isSuccess()) {
+            udpComm.sendAsync(itemID.substring(0, 2), request);
+        }
+        wal.atomically(() -> {
+            if (removePurchase(purchase)) {
+                budgetLedger.credit(customerID, purchase.getPrice());
+            }
+            return null;
+        });
+    }
+    
     @Override
     @WebMethod
     public String findItem(
@@ -208,6 +592,9 @@ public class StoreServerImpl implements StoreServer {
                 
                 if (response.isSuccess() && response.getFoundItems() != null) {
                     allFoundItems.addAll(response.getFoundItems());
+                    for (Item item : response.getFoundItems()) {
+                        remotePrices.put(item.getItemID(), item.getPrice());
+                    }
                 }
             }
         }
@@ -236,39 +623,33 @@ public class StoreServerImpl implements StoreServer {
             return "Invalid customer ID";
         }
         
-        List<Purchase> purchases = purchaseHistory.get(customerID);
-        if (purchases == null) {
+        if (!purchaseHistory.hasHistory(customerID)) {
             return "No purchase history found";
         }
         
-        Purchase targetPurchase = null;
-        for (Purchase purchase : purchases) {
-            if (purchase.getItemID().equals(itemID) && purchase.getCustomerID().equals(customerID)) {
-                targetPurchase = purchase;
-                break;
-            }
-        }
-        
+        Purchase targetPurchase = purchaseHistory.findReturnable(customerID, itemID, dateOfReturn);
         if (targetPurchase == null) {
+            if (purchaseHistory.hasPurchase(customerID, itemID)) {
+                return "Return period expired (30 days limit)";
+            }
             return "Purchase record not found";
         }
         
-        if (!targetPurchase.canReturn(dateOfReturn)) {
-            return "Return period expired (30 days limit)";
-        }
-        
         ReentrantReadWriteLock lock = itemLocks.computeIfAbsent(itemID, k -> new ReentrantReadWriteLock());
         lock.writeLock().lock();
         
         try {
+            if (!removePurchase(targetPurchase)) {
+                return "Purchase record not found";
+            }
+            
             Item item = inventory.get(itemID);
             if (item != null) {
                 item.incrementQuantity(1);
+                wal.itemChanged(item);
             }
             
-            double currentBudget = customerBudgets.get(customerID);
-            customerBudgets.put(customerID, currentBudget + targetPurchase.getPrice());
-            purchases.remove(targetPurchase);
+            budgetLedger.credit(customerID, targetPurchase.getPrice());
             
             String result = "Return successful. Refunded: $" + targetPurchase.getPrice();
             logger.logOperation("RETURN", customerID, itemID + "," + dateOfReturn, result);
@@ -276,6 +657,7 @@ public class StoreServerImpl implements StoreServer {
             
         } finally {
             lock.writeLock().unlock();
+            wal.sync();
         }
     }
     
@@ -292,35 +674,29 @@ public class StoreServerImpl implements StoreServer {
         
         logger.logOperation("EXCHANGE_START", customerID, "newItem=" + newItemID + ",oldItem=" + oldItemID, "Started");
         
-        List<Purchase> purchases = purchaseHistory.get(customerID);
-        if (purchases == null) {
+        if (!purchaseHistory.hasHistory(customerID)) {
             return "ERROR: No purchase history found";
         }
         
-        Purchase oldPurchase = null;
-        for (Purchase purchase : purchases) {
-            if (purchase.getItemID().equals(oldItemID) && purchase.getCustomerID().equals(customerID)) {
-                oldPurchase = purchase;
-                break;
-            }
-        }
-        
+        Purchase oldPurchase = purchaseHistory.findReturnable(customerID, oldItemID, getCurrentDate());
         if (oldPurchase == null) {
+            if (purchaseHistory.hasPurchase(customerID, oldItemID)) {
+                return "ERROR: Exchange period expired (30 days limit)";
+            }
             return "ERROR: Old item not found in purchase history";
         }
         
-        String currentDate = getCurrentDate();
-        if (!oldPurchase.canReturn(currentDate)) {
-            return "ERROR: Exchange period expired (30 days limit)";
-        }
-        
         String newItemStore = newItemID.substring(0, 2);
         String oldItemStore = oldItemID.substring(0, 2);
         
-        if (newItemStore.equals(storePrefix)) {
-            return executeLocalExchange(customerID, newItemID, oldItemID, oldPurchase, oldItemStore);
-        } else {
-            return executeCrossStoreExchange(customerID, newItemID, oldItemID, oldPurchase, newItemStore, oldItemStore);
+        try {
+            if (newItemStore.equals(storePrefix)) {
+                return executeLocalExchange(customerID, newItemID, oldItemID, oldPurchase, oldItemStore);
+            } else {
+                return executeCrossStoreExchange(customerID, newItemID, oldItemID, oldPurchase, newItemStore, oldItemStore);
+            }
+        } finally {
+            wal.sync();
         }
     }
     
@@ -346,29 +722,32 @@ public class StoreServerImpl implements StoreServer {
                 }
                 
                 double priceDifference = newItem.getPrice() - oldPurchase.getPrice();
-                double currentBudget = customerBudgets.get(customerID);
-                
-                if (priceDifference > 0 && currentBudget < priceDifference) {
-                    return "ERROR: Insufficient budget. Need additional $" + priceDifference;
-                }
                 
                 if (!oldItemStore.equals(storePrefix) && !canPurchaseFromOtherStore(customerID, newItemID)) {
                     return "ERROR: Already purchased from this store";
                 }
                 
+                if (!removePurchase(oldPurchase)) {
+                    return "ERROR: Old item not found in purchase history";
+                }
+                
+                if (!budgetLedger.tryDebit(customerID, priceDifference)) {
+                    addPurchase(oldPurchase);
+                    return "ERROR: Insufficient budget. Need additional $" + priceDifference;
+                }
+                
                 if (oldItemStore.equals(storePrefix)) {
                     Item oldItem = inventory.get(oldItemID);
                     if (oldItem != null) {
                         oldItem.incrementQuantity(1);
+                        wal.itemChanged(oldItem);
                     }
                 }
                 
                 newItem.decrementQuantity();
+                wal.itemChanged(newItem);
                 
-                customerBudgets.put(customerID, currentBudget - priceDifference);
-                
-                purchaseHistory.get(customerID).remove(oldPurchase);
-                purchaseHistory.get(customerID).add(new Purchase(customerID, newItemID, getCurrentDate(), newItem.getPrice()));
+                addPurchase(new Purchase(customerID, newItemID, getCurrentDate(), newItem.getPrice()));
                 
                 String result = "Exchange successful. " + 
                                (priceDifference > 0 ? "Paid $" + priceDifference : "Refunded $" + Math.abs(priceDifference));
@@ -385,92 +764,181 @@ public class StoreServerImpl implements StoreServer {
     
     private String executeCrossStoreExchange(String customerID, String newItemID, String oldItemID,
                                             Purchase oldPurchase, String newItemStore, String oldItemStore) {
-        double currentBudget = customerBudgets.get(customerID);
-        double priceDifference = currentBudget;
+        double currentBudget = budgetLedger.getBalance(customerID);
         
-        UDPRequest checkRequest = new UDPRequest(customerID, newItemID, oldItemID, currentBudget, oldPurchase.getPrice());
-        UDPResponse checkResponse = udpComm.sendMarshalledRequest(newItemStore, checkRequest);
+        //One round trip validates the exchange and reserves a unit of the new item
+        UDPRequest reserveRequest = new UDPRequest(customerID, newItemID, oldItemID, currentBudget, oldPurchase.getPrice());
+        UDPResponse reserveResponse = udpComm.sendMarshalledRequest(newItemStore, reserveRequest);
         
-        if (!checkResponse.isSuccess()) {
-            return "ERROR: " + checkResponse.getMessage();
+        if (!reserveResponse.isSuccess()) {
+            return "ERROR: " + reserveResponse.getMessage();
         }
         
-        UDPRequest prepareRequest = new UDPRequest("EXCHANGE_PREPARE", customerID, newItemID, oldItemID, currentBudget, oldPurchase.getPrice());
-        UDPResponse prepareResponse = udpComm.sendMarshalledRequest(newItemStore, prepareRequest);
+        String transactionID = reserveResponse.getTransactionID();
+        long reservedAt = System.currentTimeMillis();
+        Purchase newPurchase = new Purchase(customerID, newItemID, getCurrentDate(), reserveResponse.getItemPrice());
+        double priceDifference = newPurchase.getPrice() - oldPurchase.getPrice();
+        exchangeLog.begin(transactionID, oldPurchase, newPurchase);
         
-        if (!prepareResponse.isSuccess()) {
-            return "ERROR: Exchange preparation failed: " + prepareResponse.getMessage();
+        //Charge the price difference up front so a concurrent purchase cannot spend the same funds
+        String failure = applyExchange(transactionID, oldPurchase, priceDifference);
+        if (failure != null) {
+            abortCrossStoreExchange(transactionID, customerID, newItemID, newItemStore);
+            return "ERROR: " + failure;
         }
         
-        boolean oldItemReturned = false;
         if (!oldItemStore.equals(storePrefix)) {
-            UDPRequest returnRequest = new UDPRequest("EXCHANGE_RETURN", customerID, oldItemID, getCurrentDate());
+            exchangeLog.returning(transactionID, oldPurchase, newPurchase);
+            UDPRequest returnRequest = new UDPRequest("EXCHANGE_RETURN", customerID, oldItemID, getCurrentDate(), transactionID);
             UDPResponse returnResponse = udpComm.sendMarshalledRequest(oldItemStore, returnRequest);
             
             if (!returnResponse.isSuccess()) {
-                udpComm.sendMarshalledRequest(newItemStore, 
-                    new UDPRequest("EXCHANGE_ROLLBACK", customerID, newItemID, oldItemID));
+                //The return may have been applied even if its reply was lost; undoing it is a no-op otherwise
+                abortOpenExchange(transactionID, oldPurchase, newPurchase);
                 return "ERROR: Failed to return old item: " + returnResponse.getMessage();
             }
-            oldItemReturned = true;
-        } else {
-            ReentrantReadWriteLock lock = itemLocks.computeIfAbsent(oldItemID, k -> new ReentrantReadWriteLock());
-            lock.writeLock().lock();
-            try {
-                Item oldItem = inventory.get(oldItemID);
-                if (oldItem != null) {
-                    oldItem.incrementQuantity(1);
-                }
-            } finally {
-                lock.writeLock().unlock();
-            }
-            oldItemReturned = true;
-        }
-        
-        UDPRequest commitRequest = new UDPRequest("EXCHANGE_COMMIT", customerID, newItemID, oldItemID, currentBudget, oldPurchase.getPrice());
-        UDPResponse commitResponse = udpComm.sendMarshalledRequest(newItemStore, commitRequest);
-        
-        if (!commitResponse.isSuccess()) {
-            if (oldItemReturned) {
-                if (!oldItemStore.equals(storePrefix)) {
-                    udpComm.sendMarshalledRequest(oldItemStore,
-                        new UDPRequest("EXCHANGE_UNDO_RETURN", customerID, oldItemID, getCurrentDate()));
-                } else {
-                    ReentrantReadWriteLock lock = itemLocks.computeIfAbsent(oldItemID, k -> new ReentrantReadWriteLock());
-                    lock.writeLock().lock();
-                    try {
-                        Item oldItem = inventory.get(oldItemID);
-                        if (oldItem != null) {
-                            oldItem.decrementQuantity();
-                        }
-                    } finally {
-                        lock.writeLock().unlock();
-                    }
-                }
-            }
-            return "ERROR: Exchange commit failed: " + commitResponse.getMessage();
         }
         
-        customerBudgets.put(customerID, commitResponse.getNewBudget());
-        purchaseHistory.get(customerID).remove(oldPurchase);
+        //Keep the lease alive if the steps above ate into it. If it already ran out and its unit was sold meanwhile,
+        //the new item's store reports the reservation lost and the exchange is aborted before it is answered
+        if (System.currentTimeMillis() - reservedAt > ReservationManager.DEFAULT_LEASE_MS / 2) {
+            UDPResponse renewResponse = udpComm.sendMarshalledRequest(newItemStore,
+                new UDPRequest("EXCHANGE_RENEW", customerID, newItemID, transactionID));
+            if ("RESERVATION_LOST".equals(renewResponse.getErrorCode())) {
+                abortOpenExchange(transactionID, oldPurchase, newPurchase);
+                return "ERROR: " + renewResponse.getMessage();
+            }
+        }
         
-        double newItemPrice = currentBudget - commitResponse.getNewBudget() + oldPurchase.getPrice();
-        purchaseHistory.get(customerID).add(new Purchase(customerID, newItemID, getCurrentDate(), newItemPrice));
+        //The exchange is decided; it is answered without waiting for the commit to reach the new item's store
+        exchangeLog.committing(transactionID, oldPurchase, newPurchase);
+        completeExchange(transactionID, newPurchase);
+        commitInBackground(transactionID, oldPurchase, newPurchase);
         
-        priceDifference = newItemPrice - oldPurchase.getPrice();
         String result = "Exchange successful. " + 
                        (priceDifference > 0 ? "Paid $" + priceDifference : "Refunded $" + Math.abs(priceDifference));
         logger.logOperation("EXCHANGE", customerID, newItemID + "," + oldItemID, result);
         return result;
     }
     
+    //This store's side of a cross-store exchange, logged as one group: the old purchase is given up, the price
+    //difference charged and a local old item restocked. Returns why it could not be applied, or null.
+    private String applyExchange(String transactionID, Purchase oldPurchase, double priceDifference) {
+        String customerID = oldPurchase.getCustomerID();
+        String oldItemID = oldPurchase.getItemID();
+        return wal.atomically(() -> {
+            if (!removePurchase(oldPurchase)) {
+                return "Old item not found in purchase history";
+            }
+            if (!budgetLedger.tryDebit(customerID, priceDifference)) {
+                addPurchase(oldPurchase);
+                return "Insufficient budget for exchange";
+            }
+            if (oldItemID.startsWith(storePrefix)) {
+                adjustLocalStock(oldItemID, 1);
+            }
+            wal.exchangeOpened(transactionID);
+            return null;
+        });
+    }
+    
+    //Sends the commit of a completed exchange, retrying while the new item's store is unreachable. If that store
+    //lost the reservation (its lease ran out and the unit was sold) the exchange is reopened and aborted.
+    private void commitInBackground(String transactionID, Purchase oldPurchase, Purchase newPurchase) {
+        String customerID = newPurchase.getCustomerID();
+        String newItemID = newPurchase.getItemID();
+        udpComm.sendAsync(newItemID.substring(0, 2), new UDPRequest("EXCHANGE_COMMIT", customerID, newItemID, transactionID),
+            () -> exchangeLog.end(transactionID),
+            rejected -> {
+                if (!"RESERVATION_LOST".equals(rejected.getErrorCode())) {
+                    return;
+                }
+                if (!reopenExchange(transactionID, newPurchase)) {
+                    System.err.println("Exchange " + transactionID + " lost its reserved item after the new item was returned");
+                    return;
+                }
+                abortOpenExchange(transactionID, oldPurchase, newPurchase);
+                logger.logOperation("EXCHANGE_ABORTED", customerID, newItemID + "," + oldPurchase.getItemID(),
+                                    rejected.getMessage());
+            });
+    }
+    
+    //Aborts an exchange whose home side is applied but not completed: logs the abort, undoes the home side, takes
+    //back the old item's return from a remote store and rolls back the reservation
+    private void abortOpenExchange(String transactionID, Purchase oldPurchase, Purchase newPurchase) {
+        String customerID = oldPurchase.getCustomerID();
+        String oldItemID = oldPurchase.getItemID();
+        exchangeLog.aborting(transactionID, oldPurchase, newPurchase);
+        undoExchange(transactionID, oldPurchase, newPurchase);
+        if (!oldItemID.startsWith(storePrefix)) {
+            udpComm.sendAsync(oldItemID.substring(0, 2),
+                new UDPRequest("EXCHANGE_UNDO_RETURN", customerID, oldItemID, getCurrentDate(), transactionID));
+        }
+        abortCrossStoreExchange(transactionID, customerID, newPurchase.getItemID(), newPurchase.getItemID().substring(0, 2));
+    }
+    
+    //Reverses applyExchange; also used by recovery for exchanges that never got past their return
+    void undoExchange(String transactionID, Purchase oldPurchase, Purchase newPurchase) {
+        wal.atomically(() -> {
+            budgetLedger.credit(oldPurchase.getCustomerID(), newPurchase.getPrice() - oldPurchase.getPrice());
+            addPurchase(oldPurchase);
+            if (oldPurchase.getItemID().startsWith(storePrefix)) {
+                adjustLocalStock(oldPurchase.getItemID(), -1);
+            }
+            wal.exchangeClosed(transactionID);
+            return null;
+        });
+    }
+    
+    //Records the new purchase of a decided exchange; also used by recovery
+    void completeExchange(String transactionID, Purchase newPurchase) {
+        wal.atomically(() -> {
+            addPurchase(newPurchase);
+            wal.exchangeClosed(transactionID);
+            return null;
+        });
+    }
+    
+    //Reverses completeExchange for an exchange whose commit came too late, so it can be undone like any open
+    //exchange; false if the customer already returned the new item. Also used by recovery.
+    boolean reopenExchange(String transactionID, Purchase newPurchase) {
+        return wal.atomically(() -> {
+            if (!removePurchase(newPurchase)) {
+                return false;
+            }
+            wal.exchangeOpened(transactionID);
+            return true;
+        });
+    }
+    
+    private void adjustLocalStock(String itemID, int delta) {
+        ReentrantReadWriteLock lock = itemLocks.computeIfAbsent(itemID, k -> new ReentrantReadWriteLock());
+        lock.writeLock().lock();
+        try {
+            Item item = inventory.get(itemID);
+            if (item != null) {
+                item.setQuantity(Math.max(0, item.getQuantity() + delta));
+                wal.itemChanged(item);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    private void abortCrossStoreExchange(String transactionID, String customerID, String newItemID, String newItemStore) {
+        udpComm.sendAsync(newItemStore, new UDPRequest("EXCHANGE_ROLLBACK", customerID, newItemID, transactionID),
+                          () -> exchangeLog.aborted(transactionID));
+    }
+    
     @Override
     @WebMethod
     public String addToWaitlist(
         @WebParam(name = "customerID") String customerID,
         @WebParam(name = "itemID") String itemID
     ) {
-        return handleWaitlist(customerID, itemID);
+        String result = handleWaitlist(customerID, itemID);
+        wal.sync();
+        return result;
     }
     
     @Override
@@ -480,6 +948,12 @@ public class StoreServerImpl implements StoreServer {
     }
     
     private String purchaseLocalItem(String customerID, String itemID, int quantity, String dateOfPurchase) {
+        return purchaseLocalItem(customerID, itemID, quantity, dateOfPurchase, true);
+    }
+    
+    //logged is false when the caller logs the purchase under its own operation, e.g. waitlist fulfilment, so a
+    //log replay does not repeat it as a customer purchase
+    private String purchaseLocalItem(String customerID, String itemID, int quantity, String dateOfPurchase, boolean logged) {
         ReentrantReadWriteLock lock = itemLocks.computeIfAbsent(itemID, k -> new ReentrantReadWriteLock());
         lock.writeLock().lock();
         
@@ -497,28 +971,27 @@ public class StoreServerImpl implements StoreServer {
             }
             
             double totalCost = item.getPrice() * quantity;
-            double customerBudget = customerBudgets.get(customerID);
-            
-            if (customerBudget < totalCost) {
-                return "Insufficient budget. Available: $" + String.format("%.2f", customerBudget) + 
-                       ", Required: $" + String.format("%.2f", totalCost);
-            }
             
             if (!canPurchaseFromStore(customerID, itemID)) {
                 return "Purchase limit exceeded for this store";
             }
             
-            item.setQuantity(item.getQuantity() - quantity);
+            if (!budgetLedger.tryDebit(customerID, totalCost)) {
+                return "Insufficient budget. Available: $" + String.format("%.2f", budgetLedger.getBalance(customerID)) + 
+                       ", Required: $" + String.format("%.2f", totalCost);
+            }
             
-            customerBudgets.put(customerID, customerBudget - totalCost);
+            item.setQuantity(item.getQuantity() - quantity);
+            wal.itemChanged(item);
             
-            purchaseHistory.computeIfAbsent(customerID, k -> new ArrayList<>())
-                          .add(new Purchase(customerID, itemID, dateOfPurchase, totalCost));
+            addPurchase(new Purchase(customerID, itemID, dateOfPurchase, totalCost));
             
             String result = "Purchase successful! Bought " + quantity + " x " + item.getItemName() + 
                            " for $" + String.format("%.2f", totalCost) + 
-                           ". Remaining budget: $" + String.format("%.2f", customerBudgets.get(customerID));
-            logger.logOperation("PURCHASE", customerID, itemID + "," + quantity + "," + dateOfPurchase, result);
+                           ". Remaining budget: $" + String.format("%.2f", budgetLedger.getBalance(customerID));
+            if (logged) {
+                logger.logOperation("PURCHASE", customerID, itemID + "," + quantity + "," + dateOfPurchase, result);
+            }
             return result;
             
         } finally {
@@ -527,22 +1000,72 @@ public class StoreServerImpl implements StoreServer {
     }
     
     private String purchaseRemoteItem(String customerID, String itemID, int quantity, String dateOfPurchase) {
+        return purchaseRemoteItem(customerID, itemID, quantity, dateOfPurchase, null);
+    }
+    
+    //A successful purchase is also added to purchased, when given
+    private String purchaseRemoteItem(String customerID, String itemID, int quantity, String dateOfPurchase,
+                                      List<Purchase> purchased) {
         String targetStore = itemID.substring(0, 2);
-        double customerBudget = customerBudgets.get(customerID);
-        
-        UDPRequest request = new UDPRequest(customerID, itemID, quantity, dateOfPurchase, customerBudget);
-        UDPResponse response = udpComm.sendMarshalledRequest(targetStore, request);
         
+        //Hold what this purchase costs at the item's price and let the remote store charge against the hold only,
+        //so parallel remote purchases cannot spend the same funds. The price comes from the cache (filled by
+        //findItem and earlier purchases) or from a quote; a cached price that has since gone up is re-quoted once.
+        UDPResponse response = null;
+        BudgetLedger.Hold hold = null;
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Double unitPrice = remotePrices.get(itemID);
+            boolean cached = unitPrice != null;
+            if (!cached) {
+                UDPResponse quote = udpComm.sendMarshalledRequest(targetStore, new UDPRequest("QUOTE", customerID, itemID));
+                if (!quote.isSuccess()) {
+                    String result = "Purchase failed: " + quote.getMessage();
+                    logger.logOperation("REMOTE_PURCHASE_FAILED", customerID, itemID + "," + quantity + "," + dateOfPurchase, result);
+                    return result;
+                }
+                unitPrice = quote.getItemPrice();
+                remotePrices.put(itemID, unitPrice);
+            }
+
+            double cost = unitPrice * quantity;
+            hold = budgetLedger.tryHold(customerID, cost);
+            if (hold == null || BudgetLedger.toCents(hold.getAmount()) < BudgetLedger.toCents(cost)) {
+                if (hold != null) {
+                    hold.release();
+                }
+                String result = "Purchase failed: Insufficient budget";
+                logger.logOperation("REMOTE_PURCHASE_FAILED", customerID, itemID + "," + quantity + "," + dateOfPurchase, result);
+                return result;
+            }
+
+            UDPRequest request = new UDPRequest(customerID, itemID, quantity, dateOfPurchase, hold.getAmount());
+            response = udpComm.sendMarshalledRequest(targetStore, request);
+            if (response.isSuccess() || !cached || !"Insufficient budget".equals(response.getMessage())) {
+                break;
+            }
+            hold.release();
+            remotePrices.remove(itemID);
+        }
+
         if (response.isSuccess()) {
-            customerBudgets.put(customerID, response.getNewBudget());
-            double purchasePrice = customerBudget - response.getNewBudget();
-            purchaseHistory.computeIfAbsent(customerID, k -> new ArrayList<>())
-                        .add(new Purchase(customerID, itemID, dateOfPurchase, purchasePrice));
+            double purchasePrice = hold.getAmount() - response.getNewBudget();
+            hold.settle(purchasePrice);
+            if (response.getItemPrice() > 0) {
+                remotePrices.put(itemID, response.getItemPrice());
+            }
+            Purchase purchase = new Purchase(customerID, itemID, dateOfPurchase, purchasePrice);
+            addPurchase(purchase);
+            if (purchased != null) {
+                purchased.add(purchase);
+            }
+            wal.sync();
             
-            String result = "Purchase successful. Remaining budget: $" + String.format("%.2f", response.getNewBudget());
+            String result = "Purchase successful. Remaining budget: $" + String.format("%.2f", budgetLedger.getBalance(customerID));
             logger.logOperation("REMOTE_PURCHASE", customerID, itemID + "," + quantity + "," + dateOfPurchase, result);
             return result;
         } else {
+            hold.release();
+            wal.sync();
             String result = "Purchase failed: " + response.getMessage();
             logger.logOperation("REMOTE_PURCHASE_FAILED", customerID, itemID + "," + quantity + "," + dateOfPurchase, result);
             return result;
@@ -564,33 +1087,55 @@ public class StoreServerImpl implements StoreServer {
             }
             
             double totalCost = item.getPrice() * quantity;
-            if (customerBudget < totalCost) {
+            if (BudgetLedger.toCents(customerBudget) < BudgetLedger.toCents(totalCost)) {
                 return "ERROR,Insufficient budget";
             }
             
-            List<Purchase> purchases = purchaseHistory.get(customerID);
-            if (purchases != null) {
-                for (Purchase purchase : purchases) {
-                    if (purchase.getItemID().startsWith(storePrefix)) {
-                        return "ERROR,Already purchased from " + storePrefix + " store. Limit: 1 item per remote store.";
-                    }
-                }
+            if (purchaseHistory.hasPurchasedFrom(customerID, storePrefix)) {
+                return "ERROR,Already purchased from " + storePrefix + " store. Limit: 1 item per remote store.";
             }
             
             item.setQuantity(item.getQuantity() - quantity);
+            wal.itemChanged(item);
             double newBudget = customerBudget - totalCost;
             
-            purchaseHistory.computeIfAbsent(customerID, k -> new ArrayList<>())
-                          .add(new Purchase(customerID, itemID, date, totalCost));
+            addPurchase(new Purchase(customerID, itemID, date, totalCost));
             
             logger.logOperation("REMOTE_PURCHASE", customerID, itemID + "," + quantity + "," + date, "SUCCESS");
-            return "SUCCESS," + newBudget;
+            return "SUCCESS," + newBudget + "," + item.getPrice();
             
         } finally {
             lock.writeLock().unlock();
         }
     }
     
+    //Gives back a purchase processRemotePurchase made for a cart that was then rejected; false if the purchase
+    //is not on record, e.g. because a retried request already gave it back
+    public boolean undoRemotePurchase(String customerID, String itemID, int quantity, String date, double cost) {
+        ReentrantReadWriteLock lock = itemLocks.computeIfAbsent(itemID, k -> new ReentrantReadWriteLock());
+        lock.writeLock().lock();
+        
+        try {
+            boolean undone = wal.atomically(() -> {
+                if (!removePurchase(new Purchase(customerID, itemID, date, cost))) {
+                    return false;
+                }
+                Item item = inventory.get(itemID);
+                if (item != null) {
+                    item.incrementQuantity(quantity);
+                    wal.itemChanged(item);
+                }
+                return true;
+            });
+            if (undone) {
+                logger.logOperation("REMOTE_PURCHASE_UNDO", customerID, itemID + "," + quantity + "," + date, "SUCCESS");
+            }
+            return undone;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
     public List<Item> findLocalItems(String itemName) {
         List<Item> foundItems = new ArrayList<>();
         
@@ -618,16 +1163,7 @@ public class StoreServerImpl implements StoreServer {
             return true;
         }
         
-        List<Purchase> purchases = purchaseHistory.get(customerID);
-        if (purchases != null) {
-            for (Purchase purchase : purchases) {
-                String purchaseStore = purchase.getItemID().substring(0, 2);
-                if (purchaseStore.equals(itemStore)) {
-                    return false;
-                }
-            }
-        }
-        return true;
+        return !purchaseHistory.hasPurchasedFrom(customerID, itemStore);
     }
     
     public String getLocalStorePrefix() {
@@ -644,23 +1180,55 @@ public class StoreServerImpl implements StoreServer {
     }
     
     private String handleWaitlist(String customerID, String itemID) {
-        Queue<String> waitlist = waitlists.computeIfAbsent(itemID, k -> new LinkedList<>());
-        if (!waitlist.contains(customerID)) {
-            waitlist.offer(customerID);
-            return "Item out of stock. Added to waitlist. Position: " + waitlist.size();
+        Waitlist waitlist = waitlists.computeIfAbsent(itemID, k -> new Waitlist());
+        int position = waitlist.offer(customerID);
+        if (position > 0) {
+            wal.waitlistJoined(itemID, customerID);
+            return "Item out of stock. Added to waitlist. Position: " + position;
         }
         return "Already in waitlist for this item";
     }
     
+    //Restocks of the same item are coalesced into one pending fulfillment pass
+    private void scheduleWaitlistFulfillment(String itemID) {
+        if (pendingRestocks.add(itemID)) {
+            waitlistExecutor.execute(() -> {
+                pendingRestocks.remove(itemID);
+                processWaitlist(itemID);
+            });
+        }
+    }
+    
+    //Serves waiting customers one unit each until the stock or the waitlist runs out
     private void processWaitlist(String itemID) {
-        Queue<String> waitlist = waitlists.get(itemID);
-        Item item = inventory.get(itemID);
+        Waitlist waitlist = waitlists.get(itemID);
+        if (waitlist == null) {
+            return;
+        }
+        
+        ReentrantReadWriteLock lock = itemLocks.computeIfAbsent(itemID, k -> new ReentrantReadWriteLock());
+        lock.writeLock().lock();
         
-        if (waitlist != null && item != null && item.getQuantity() > 0) {
-            String customerID = waitlist.poll();
-            if (customerID != null) {
-                purchaseLocalItem(customerID, itemID, 1, getCurrentDate());
+        try {
+            Item item = inventory.get(itemID);
+            if (item == null) {
+                return;
             }
+            
+            String date = getCurrentDate();
+            while (item.getQuantity() > 0) {
+                String customerID = waitlist.poll();
+                if (customerID == null) {
+                    break;
+                }
+                wal.waitlistLeft(itemID, customerID);
+                String purchaseResult = purchaseLocalItem(customerID, itemID, 1, date, false);
+                logger.logOperation("WAITLIST_FULFILL", customerID, itemID, purchaseResult);
+            }
+        } catch (Exception e) {
+            System.err.println("Waitlist fulfillment failed for " + itemID + ": " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
         }
     }
     
@@ -672,21 +1240,61 @@ public class StoreServerImpl implements StoreServer {
             return true;
         }
         
-        List<Purchase> purchases = purchaseHistory.get(customerID);
-        if (purchases != null) {
-            for (Purchase purchase : purchases) {
-                if (purchase.getItemID().startsWith(itemStore)) {
-                    return false;
-                }
-            }
-        }
-        return true;
+        return !purchaseHistory.hasPurchasedFrom(customerID, itemStore);
     }
     
     private String getCurrentDate() {
         return java.time.LocalDate.now().format(java.time.format.DateTimeFormatter.ofPattern("ddMMyyyy"));
     }
     
+    private void addPurchase(Purchase purchase) {
+        purchaseHistory.add(purchase);
+        wal.purchaseAdded(purchase);
+    }
+    
+    private boolean removePurchase(Purchase purchase) {
+        if (!purchaseHistory.remove(purchase)) {
+            return false;
+        }
+        wal.purchaseRemoved(purchase);
+        return true;
+    }
+    
+    //Records an item change made by the UDP handlers; caller holds the item write lock
+    public void logItemChange(Item item) {
+        wal.itemChanged(item);
+    }
+    
+    //Routes requests from other stores hosted in this JVM to this one in memory instead of over UDP
+    public void enableInProcessRouting() {
+        udpComm.registerInProcess(storePrefix);
+    }
+    
+    WriteAheadLog getWriteAheadLog() {
+        return wal;
+    }
+    
+    //Stops the store: its UDP server and background threads first, then its logs. For hosts and tests that
+    //start a store again in the same JVM; the state is recovered from the data directory as after a crash.
+    public void close() {
+        udpComm.close();
+        snapshotter.close();
+        waitlistExecutor.shutdownNow();
+        remoteRequestExecutor.shutdownNow();
+        exchangeLog.close();
+        wal.close();
+        logger.close();
+    }
+    
+    //Waits until the calling thread's logged changes are durable, per the configured durability mode
+    public void syncWriteAheadLog() {
+        wal.sync();
+    }
+    
+    public ReentrantReadWriteLock getItemLock(String itemID) {
+        return itemLocks.computeIfAbsent(itemID, k -> new ReentrantReadWriteLock());
+    }
+    
     public Item getItem(String itemID) {
         return inventory.get(itemID);
     }
@@ -694,4 +1302,8 @@ public class StoreServerImpl implements StoreServer {
     public List<Purchase> getCustomerPurchases(String customerID) {
         return purchaseHistory.get(customerID);
     }
+    
+    public boolean hasPurchasedFromStore(String customerID, String storePrefix) {
+        return purchaseHistory.hasPurchasedFrom(customerID, storePrefix);
+    }
 }
@@ -0,0 +1,133 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import models.Item;
+import utils.DSMSLogger;
+
+//Keeps "<prefix>_snapshot.bin" up to date: every interval it seals the active write-ahead log segment, folds
+//the sealed segments into the previous snapshot off to the side, writes the result and deletes the folded
+//segments. Recovery then only has to read the snapshot and replay the segments written after it.
+public class StoreSnapshotter {
+    private final String storePrefix;
+    private final Path file;
+    private final WriteAheadLog wal;
+    private final ScheduledExecutorService scheduler;
+
+    public StoreSnapshotter(String storePrefix, Path file, WriteAheadLog wal) {
+        this.storePrefix = storePrefix;
+        this.file = file;
+        this.wal = wal;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, storePrefix + "-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void start(long intervalSeconds) {
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot();
+            } catch (Exception e) {
+                System.err.println("Snapshot of " + storePrefix + " failed: " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    //Stops taking snapshots, waiting for one in progress to finish
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //Latest snapshot plus every sealed segment after it; empty if the store has never persisted anything.
+    //What was recovered is written to the store's log.
+    public StoreState recover(DSMSLogger logger) throws IOException {
+        ExecutorService loaders = newLoaders();
+        try {
+            long start = System.currentTimeMillis();
+            StoreState state = Files.exists(file) ? StoreState.read(file, loaders) : new StoreState();
+            int replayed = foldSegments(state);
+            if (!state.isEmpty()) {
+                logger.logOperation("RECOVER", "-", "segment=" + state.getLastSegment() + ",records=" + replayed,
+                                    "Recovered in " + (System.currentTimeMillis() - start) + " ms");
+            }
+            return state;
+        } finally {
+            loaders.shutdown();
+        }
+    }
+
+    //Loads recovered state into the live store using the same parallelism as the snapshot read
+    public void install(StoreState state, Map<String, Item> inventory, Map<String, Waitlist> waitlists,
+                        BudgetLedger ledger, PurchaseHistory history) {
+        ExecutorService loaders = newLoaders();
+        try {
+            state.install(inventory, waitlists, ledger, history, loaders);
+        } finally {
+            loaders.shutdown();
+        }
+    }
+
+    public synchronized void snapshot() throws IOException {
+        wal.roll();
+        if (wal.sealedSegments().isEmpty()) {
+            return;
+        }
+
+        //Re-reading the previous snapshot keeps no second copy of the store in memory between snapshots
+        ExecutorService loaders = newLoaders();
+        StoreState state;
+        try {
+            state = Files.exists(file) ? StoreState.read(file, loaders) : new StoreState();
+        } finally {
+            loaders.shutdown();
+        }
+        foldSegments(state);
+        state.write(file);
+        wal.deleteSegmentsThrough(state.getLastSegment());
+    }
+
+    private ExecutorService newLoaders() {
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread t = new Thread(r, storePrefix + "-snapshot-loader");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    //Applies the sealed segments the state does not cover yet, in order
+    private int foldSegments(StoreState state) throws IOException {
+        int applied = 0;
+        for (long seq : wal.sealedSegments()) {
+            if (seq <= state.getLastSegment()) {
+                continue;
+            }
+            for (String record : wal.readSegment(seq)) {
+                if (record.isEmpty()) {
+                    continue;
+                }
+                try {
+                    if (state.apply(record)) {
+                        applied++;
+                    }
+                } catch (RuntimeException e) {
+                    System.err.println("Skipping bad write-ahead log record: " + record);
+                }
+            }
+            state.setLastSegment(seq);
+        }
+        return applied;
+    }
+}
@@ -0,0 +1,527 @@
+package server;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import models.Item;
+import models.Purchase;
+
+//Plain copy of a store's persistent state, built by folding write-ahead log records into the previous
+//snapshot. It never touches the live store, so snapshots are taken without pausing requests.
+//
+//Binary snapshot layout (big-endian, strings as modified UTF-8):
+//  int magic, int version, long last folded segment, int section count
+//  per section: byte kind, long offset, int length
+//  section bodies: ITEMS, BUDGETS, WAITLISTS, EXCHANGES, RESERVATIONS, EXPIRED_RESERVATIONS, ARCHIVED_PURCHASES and
+//  PURCHASE_CHUNKS purchase sections split by customer, each independent so they can be decoded in parallel
+//Purchases past the return window are only counted per customer and item, as the live purchase history keeps them,
+//so the snapshot grows with the number of customers and items rather than with total sales.
+public class StoreState {
+    private static final int MAGIC = 0x44534D53;
+    private static final int VERSION = 1;
+    private static final byte ITEMS = 1;
+    private static final byte BUDGETS = 2;
+    private static final byte WAITLISTS = 3;
+    private static final byte PURCHASES = 4;
+    private static final byte EXCHANGES = 5;
+    private static final byte RESERVATIONS = 6;
+    private static final byte EXPIRED_RESERVATIONS = 7;
+    private static final byte ARCHIVED_PURCHASES = 8;
+    private static final int PURCHASE_CHUNKS = 4;
+
+    private final Map<String, Item> items;
+    //customerID -> net balance change from the initial budget, in cents
+    private final Map<String, Long> budgets;
+    //itemID -> waiting customers in queue order
+    private final Map<String, LinkedHashSet<String>> waitlists;
+    //customerID -> purchase -> number of identical purchases
+    private final Map<String, Map<PurchaseKey, Integer>> purchases;
+    //customerID -> itemID -> number of purchases past the return window
+    private final Map<String, Map<String, Integer>> archivedPurchases;
+    //cross-store exchanges whose home side is applied but not yet completed or undone
+    private final Set<String> openExchanges;
+    //units held for exchanges other stores coordinate, by transaction
+    private final Map<String, ReservationManager.Reservation> reservations;
+    //transactionID -> when its reservation expired, so a late commit is still recognised
+    private final Map<String, Long> expiredReservations;
+    private long lastSegment;
+
+    public StoreState() {
+        this.items = new ConcurrentHashMap<>();
+        this.budgets = new ConcurrentHashMap<>();
+        this.waitlists = new ConcurrentHashMap<>();
+        this.purchases = new ConcurrentHashMap<>();
+        this.archivedPurchases = new ConcurrentHashMap<>();
+        this.openExchanges = ConcurrentHashMap.newKeySet();
+        this.reservations = new ConcurrentHashMap<>();
+        this.expiredReservations = new ConcurrentHashMap<>();
+    }
+
+    public long getLastSegment() {
+        return lastSegment;
+    }
+
+    public void setLastSegment(long lastSegment) {
+        this.lastSegment = lastSegment;
+    }
+
+    public boolean isEmpty() {
+        return items.isEmpty() && budgets.isEmpty() && waitlists.isEmpty() && purchases.isEmpty() && archivedPurchases.isEmpty() &&
+               openExchanges.isEmpty() &&
+               reservations.isEmpty() && expiredReservations.isEmpty();
+    }
+
+    public Set<String> getOpenExchanges() {
+        return openExchanges;
+    }
+
+    public Collection<ReservationManager.Reservation> getReservations() {
+        return reservations.values();
+    }
+
+    public Collection<String> getExpiredReservations() {
+        return expiredReservations.keySet();
+    }
+
+    //Applies one write-ahead log record; false if it is not a record this version understands
+    public boolean apply(String record) {
+        String[] fields = record.split("\\|", -1);
+        switch (fields[0]) {
+            case "ITEM":
+                items.put(fields[1], new Item(fields[1], WriteAheadLog.unescape(fields[2]), Integer.parseInt(fields[3]), Double.parseDouble(fields[4])));
+                return true;
+            case "BUDGET":
+                budgets.merge(fields[1], Long.parseLong(fields[2]), Long::sum);
+                return true;
+            case "BUY":
+                purchases.computeIfAbsent(fields[1], k -> new LinkedHashMap<>())
+                         .merge(PurchaseKey.parse(fields), 1, Integer::sum);
+                return true;
+            case "UNBUY": {
+                Map<PurchaseKey, Integer> bought = purchases.get(fields[1]);
+                if (bought != null) {
+                    bought.computeIfPresent(PurchaseKey.parse(fields), (k, count) -> count > 1 ? count - 1 : null);
+                    if (bought.isEmpty()) {
+                        purchases.remove(fields[1]);
+                    }
+                }
+                return true;
+            }
+            case "WAIT":
+                waitlists.computeIfAbsent(fields[1], k -> new LinkedHashSet<>()).add(fields[2]);
+                return true;
+            case "UNWAIT": {
+                Set<String> waiting = waitlists.get(fields[1]);
+                if (waiting != null) {
+                    waiting.remove(fields[2]);
+                    if (waiting.isEmpty()) {
+                        waitlists.remove(fields[1]);
+                    }
+                }
+                return true;
+            }
+            case "XOPEN":
+                openExchanges.add(fields[1]);
+                return true;
+            case "XCLOSE":
+                openExchanges.remove(fields[1]);
+                return true;
+            case "RESERVE":
+                reservations.put(fields[1], new ReservationManager.Reservation(fields[1], fields[2], fields[3],
+                                                                              fields[4].isEmpty() ? null : fields[4], 0));
+                return true;
+            case "UNRESERVE":
+                reservations.remove(fields[1]);
+                expiredReservations.remove(fields[1]);
+                return true;
+            case "EXPIRE":
+                reservations.remove(fields[1]);
+                expiredReservations.put(fields[1], Long.parseLong(fields[2]));
+                return true;
+            case "GROUP": {
+                //Members are length-prefixed, so they may contain '|' themselves
+                int pos = "GROUP|".length();
+                while (pos < record.length()) {
+                    int colon = record.indexOf(':', pos);
+                    int end = colon + 1 + Integer.parseInt(record.substring(pos, colon));
+                    apply(record.substring(colon + 1, end));
+                    pos = end + 1;
+                }
+                return true;
+            }
+            default:
+                return false;
+        }
+    }
+
+    //Loads the state into an empty store, one task per section
+    public void install(Map<String, Item> inventory, Map<String, Waitlist> liveWaitlists, BudgetLedger ledger,
+                        PurchaseHistory history, ExecutorService executor) {
+        List<Task> tasks = new ArrayList<>();
+        tasks.add(() -> {
+            for (Item item : items.values()) {
+                inventory.put(item.getItemID(), new Item(item));
+                liveWaitlists.computeIfAbsent(item.getItemID(), k -> new Waitlist());
+            }
+        });
+        tasks.add(() -> {
+            for (Map.Entry<String, Long> budget : budgets.entrySet()) {
+                ledger.restore(budget.getKey(), budget.getValue());
+            }
+        });
+        tasks.add(() -> {
+            for (Map.Entry<String, LinkedHashSet<String>> waiting : waitlists.entrySet()) {
+                Waitlist waitlist = liveWaitlists.computeIfAbsent(waiting.getKey(), k -> new Waitlist());
+                for (String customerID : waiting.getValue()) {
+                    waitlist.offer(customerID);
+                }
+            }
+        });
+        tasks.add(() -> {
+            for (Map.Entry<String, Map<String, Integer>> customer : archivedPurchases.entrySet()) {
+                for (Map.Entry<String, Integer> archived : customer.getValue().entrySet()) {
+                    history.restoreArchived(customer.getKey(), archived.getKey(), archived.getValue());
+                }
+            }
+        });
+        for (int chunk = 0; chunk < PURCHASE_CHUNKS; chunk++) {
+            int current = chunk;
+            tasks.add(() -> {
+                for (Map.Entry<String, Map<PurchaseKey, Integer>> customer : purchases.entrySet()) {
+                    if (chunkOf(customer.getKey()) != current) {
+                        continue;
+                    }
+                    for (Map.Entry<PurchaseKey, Integer> bought : customer.getValue().entrySet()) {
+                        Purchase purchase = bought.getKey().toPurchase(customer.getKey());
+                        for (int i = 0; i < bought.getValue(); i++) {
+                            history.add(purchase);
+                        }
+                    }
+                }
+            });
+        }
+        runAll(tasks, executor);
+    }
+
+    //Writes the snapshot to a temporary file and moves it into place, so a crash leaves the old snapshot intact
+    public void write(Path file) throws IOException {
+        archiveExpiredPurchases((int) LocalDate.now().toEpochDay());
+        List<Byte> kinds = new ArrayList<>();
+        List<byte[]> bodies = new ArrayList<>();
+        kinds.add(ITEMS);
+        bodies.add(encode(out -> {
+            out.writeInt(items.size());
+            for (Item item : items.values()) {
+                out.writeUTF(item.getItemID());
+                out.writeUTF(item.getItemName());
+                out.writeInt(item.getQuantity());
+                out.writeDouble(item.getPrice());
+            }
+        }));
+        kinds.add(BUDGETS);
+        bodies.add(encode(out -> {
+            out.writeInt(budgets.size());
+            for (Map.Entry<String, Long> budget : budgets.entrySet()) {
+                out.writeUTF(budget.getKey());
+                out.writeLong(budget.getValue());
+            }
+        }));
+        kinds.add(WAITLISTS);
+        bodies.add(encode(out -> {
+            out.writeInt(waitlists.size());
+            for (Map.Entry<String, LinkedHashSet<String>> waiting : waitlists.entrySet()) {
+                out.writeUTF(waiting.getKey());
+                out.writeInt(waiting.getValue().size());
+                for (String customerID : waiting.getValue()) {
+                    out.writeUTF(customerID);
+                }
+            }
+        }));
+        kinds.add(EXCHANGES);
+        bodies.add(encode(out -> {
+            out.writeInt(openExchanges.size());
+            for (String transactionID : openExchanges) {
+                out.writeUTF(transactionID);
+            }
+        }));
+        kinds.add(RESERVATIONS);
+        bodies.add(encode(out -> {
+            out.writeInt(reservations.size());
+            for (ReservationManager.Reservation reservation : reservations.values()) {
+                out.writeUTF(reservation.getTransactionID());
+                out.writeUTF(reservation.getCustomerID());
+                out.writeUTF(reservation.getItemID());
+                out.writeUTF(reservation.getOldItemID() == null ? "" : reservation.getOldItemID());
+            }
+        }));
+        kinds.add(EXPIRED_RESERVATIONS);
+        bodies.add(encode(out -> {
+            //Expiries are only kept as long as a late commit could still arrive
+            long cutoff = System.currentTimeMillis() - ReservationManager.EXPIRED_RETENTION_MS;
+            expiredReservations.values().removeIf(expiredAt -> expiredAt < cutoff);
+            out.writeInt(expiredReservations.size());
+            for (Map.Entry<String, Long> expiry : expiredReservations.entrySet()) {
+                out.writeUTF(expiry.getKey());
+                out.writeLong(expiry.getValue());
+            }
+        }));
+        kinds.add(ARCHIVED_PURCHASES);
+        bodies.add(encode(out -> {
+            out.writeInt(archivedPurchases.size());
+            for (Map.Entry<String, Map<String, Integer>> customer : archivedPurchases.entrySet()) {
+                out.writeUTF(customer.getKey());
+                out.writeInt(customer.getValue().size());
+                for (Map.Entry<String, Integer> archived : customer.getValue().entrySet()) {
+                    out.writeUTF(archived.getKey());
+                    out.writeInt(archived.getValue());
+                }
+            }
+        }));
+        for (int chunk = 0; chunk < PURCHASE_CHUNKS; chunk++) {
+            int current = chunk;
+            kinds.add(PURCHASES);
+            bodies.add(encode(out -> {
+                List<Map.Entry<String, Map<PurchaseKey, Integer>>> customers = new ArrayList<>();
+                for (Map.Entry<String, Map<PurchaseKey, Integer>> customer : purchases.entrySet()) {
+                    if (chunkOf(customer.getKey()) == current) {
+                        customers.add(customer);
+                    }
+                }
+                out.writeInt(customers.size());
+                for (Map.Entry<String, Map<PurchaseKey, Integer>> customer : customers) {
+                    out.writeUTF(customer.getKey());
+                    out.writeInt(customer.getValue().size());
+                    for (Map.Entry<PurchaseKey, Integer> bought : customer.getValue().entrySet()) {
+                        out.writeUTF(bought.getKey().itemID);
+                        out.writeInt(bought.getKey().day);
+                        out.writeLong(bought.getKey().cents);
+                        out.writeInt(bought.getValue());
+                    }
+                }
+            }));
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(lastSegment);
+            out.writeInt(bodies.size());
+            long offset = 4 + 4 + 8 + 4 + bodies.size() * (1 + 8 + 4);
+            for (int i = 0; i < bodies.size(); i++) {
+                out.writeByte(kinds.get(i));
+                out.writeLong(offset);
+                out.writeInt(bodies.get(i).length);
+                offset += bodies.get(i).length;
+            }
+            for (byte[] body : bodies) {
+                out.write(body);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    //Folds purchases that can no longer be returned into their per-item counts
+    private void archiveExpiredPurchases(int today) {
+        for (Map.Entry<String, Map<PurchaseKey, Integer>> customer : purchases.entrySet()) {
+            Iterator<Map.Entry<PurchaseKey, Integer>> bought = customer.getValue().entrySet().iterator();
+            while (bought.hasNext()) {
+                Map.Entry<PurchaseKey, Integer> purchase = bought.next();
+                if (purchase.getKey().day + Purchase.RETURN_WINDOW_DAYS < today) {
+                    archivedPurchases.computeIfAbsent(customer.getKey(), k -> new LinkedHashMap<>())
+                                     .merge(purchase.getKey().itemID, purchase.getValue(), Integer::sum);
+                    bought.remove();
+                }
+            }
+        }
+        purchases.values().removeIf(Map::isEmpty);
+    }
+
+    //Reads a snapshot, decoding its sections in parallel
+    public static StoreState read(Path file, ExecutorService executor) throws IOException {
+        byte[] data = Files.readAllBytes(file);
+        DataInputStream header = new DataInputStream(new ByteArrayInputStream(data));
+        if (header.readInt() != MAGIC) {
+            throw new IOException("Not a store snapshot: " + file);
+        }
+        int version = header.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version + ": " + file);
+        }
+
+        StoreState state = new StoreState();
+        state.lastSegment = header.readLong();
+        int sections = header.readInt();
+        List<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < sections; i++) {
+            byte kind = header.readByte();
+            int offset = (int) header.readLong();
+            int length = header.readInt();
+            tasks.add(() -> state.decode(kind, new DataInputStream(new ByteArrayInputStream(data, offset, length))));
+        }
+        runAll(tasks, executor);
+        return state;
+    }
+
+    private void decode(byte kind, DataInputStream in) throws IOException {
+        int count = in.readInt();
+        switch (kind) {
+            case ITEMS:
+                for (int i = 0; i < count; i++) {
+                    Item item = new Item(in.readUTF(), in.readUTF(), in.readInt(), in.readDouble());
+                    items.put(item.getItemID(), item);
+                }
+                break;
+            case BUDGETS:
+                for (int i = 0; i < count; i++) {
+                    budgets.put(in.readUTF(), in.readLong());
+                }
+                break;
+            case WAITLISTS:
+                for (int i = 0; i < count; i++) {
+                    String itemID = in.readUTF();
+                    int waiting = in.readInt();
+                    LinkedHashSet<String> customers = new LinkedHashSet<>();
+                    for (int j = 0; j < waiting; j++) {
+                        customers.add(in.readUTF());
+                    }
+                    waitlists.put(itemID, customers);
+                }
+                break;
+            case PURCHASES:
+                for (int i = 0; i < count; i++) {
+                    String customerID = in.readUTF();
+                    int distinct = in.readInt();
+                    Map<PurchaseKey, Integer> bought = new LinkedHashMap<>();
+                    for (int j = 0; j < distinct; j++) {
+                        bought.put(new PurchaseKey(in.readUTF(), in.readInt(), in.readLong()), in.readInt());
+                    }
+                    purchases.put(customerID, bought);
+                }
+                break;
+            case ARCHIVED_PURCHASES:
+                for (int i = 0; i < count; i++) {
+                    String customerID = in.readUTF();
+                    int distinct = in.readInt();
+                    Map<String, Integer> archived = new LinkedHashMap<>();
+                    for (int j = 0; j < distinct; j++) {
+                        archived.put(in.readUTF(), in.readInt());
+                    }
+                    archivedPurchases.put(customerID, archived);
+                }
+                break;
+            case EXCHANGES:
+                for (int i = 0; i < count; i++) {
+                    openExchanges.add(in.readUTF());
+                }
+                break;
+            case RESERVATIONS:
+                for (int i = 0; i < count; i++) {
+                    String transactionID = in.readUTF();
+                    String customerID = in.readUTF();
+                    String itemID = in.readUTF();
+                    String oldItemID = in.readUTF();
+                    reservations.put(transactionID, new ReservationManager.Reservation(transactionID, customerID, itemID,
+                                                                                      oldItemID.isEmpty() ? null : oldItemID, 0));
+                }
+                break;
+            case EXPIRED_RESERVATIONS:
+                for (int i = 0; i < count; i++) {
+                    expiredReservations.put(in.readUTF(), in.readLong());
+                }
+                break;
+            default:
+                //Sections from a newer writer are skipped
+                break;
+        }
+    }
+
+    private static int chunkOf(String customerID) {
+        return Math.floorMod(customerID.hashCode(), PURCHASE_CHUNKS);
+    }
+
+    private static byte[] encode(Section section) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        section.writeTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void runAll(List<Task> tasks, ExecutorService executor) {
+        List<Future<?>> futures = new ArrayList<>();
+        for (Task task : tasks) {
+            futures.add(executor.submit(() -> {
+                task.call();
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading store state", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw new UncheckedIOException((IOException) cause);
+            }
+            throw new IllegalStateException("Failed to load store state", cause);
+        }
+    }
+
+    private interface Section {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    private interface Task {
+        void call() throws IOException;
+    }
+
+    private static class PurchaseKey {
+        final String itemID;
+        final int day;
+        final long cents;
+
+        PurchaseKey(String itemID, int day, long cents) {
+            this.itemID = itemID;
+            this.day = day;
+            this.cents = cents;
+        }
+
+        //Fields of a BUY/UNBUY record: customerID, itemID, epochDay, cents
+        static PurchaseKey parse(String[] fields) {
+            return new PurchaseKey(fields[2], Integer.parseInt(fields[3]), Long.parseLong(fields[4]));
+        }
+
+        Purchase toPurchase(String customerID) {
+            return new Purchase(customerID, itemID, LocalDate.ofEpochDay(day), BudgetLedger.fromCents(cents));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PurchaseKey)) {
+                return false;
+            }
+            PurchaseKey other = (PurchaseKey) o;
+            return day == other.day && cents == other.cents && itemID.equals(other.itemID);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(itemID, day, cents);
+        }
+    }
+}
@@ -5,40 +5,86 @@ import java.io.*;
 import java.net.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
 public class UDPCommunicator {
     private final int port;
     private final StoreServerImpl server;
-    private DatagramSocket socket;
+    private final WriteAheadLog wal;
+    private volatile DatagramSocket socket;
     private final Map<String, Integer> storePorts;
-    private final Map<String, ExchangeTransaction> pendingExchanges;
+    private final ReservationManager reservations;
+    private final RecentTransactions appliedReturns;
+    private final ExecutorService asyncSender;
+    private static final int ASYNC_SEND_ATTEMPTS = 3;
+    //Stores hosted in this JVM that accept requests without going through their socket
+    private static final Map<String, UDPCommunicator> inProcessStores = new ConcurrentHashMap<>();
     
     public UDPCommunicator(int port, StoreServerImpl server) {
         this.port = port;
         this.server = server;
-        this.pendingExchanges = new ConcurrentHashMap<>();
+        this.wal = server.getWriteAheadLog();
+        this.reservations = new ReservationManager("udp-" + port,
+                                                   Long.getLong("dsms.reservationLeaseMillis", ReservationManager.DEFAULT_LEASE_MS),
+                                                   wal, expired -> adjustStock(expired.getItemID(), 1));
+        this.appliedReturns = new RecentTransactions(24 * 60 * 60 * 1000L);
+        this.asyncSender = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "udp-async-" + port);
+            t.setDaemon(true);
+            return t;
+        });
         this.storePorts = new HashMap<>();
         storePorts.put("QC", 9001);
         storePorts.put("ON", 9002);
         storePorts.put("BC", 9003);
     }
     
+    //Reloads the reservations recovered from the write-ahead log; called before the UDP server starts
+    public void restoreReservations(StoreState recovered) {
+        reservations.restore(recovered.getReservations(), recovered.getExpiredReservations());
+    }
+    
+    //Binds the port before returning, then serves requests on a daemon thread until close()
     public void startUDPServer() {
-        new Thread(() -> {
+        try {
+            socket = new DatagramSocket(port);
+        } catch (SocketException e) {
+            e.printStackTrace();
+            return;
+        }
+        Thread server = new Thread(() -> {
             try {
-                socket = new DatagramSocket(port);
-                byte[] buffer = new byte[65536];
-                
                 while (true) {
+                    //Each packet gets its own buffer, since its handler runs while the next one is received
+                    byte[] buffer = new byte[65536];
                     DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
                     socket.receive(packet);
                     
-                    new Thread(() -> handleRequest(packet)).start();
+                    Thread handler = new Thread(() -> handleRequest(packet), "udp-request-" + port);
+                    handler.setDaemon(true);
+                    handler.start();
                 }
             } catch (Exception e) {
-                e.printStackTrace();
+                if (!socket.isClosed()) {
+                    e.printStackTrace();
+                }
             }
-        }).start();
+        }, "udp-server-" + port);
+        server.setDaemon(true);
+        server.start();
+    }
+    
+    //Stops serving requests and the background senders and reaper
+    public void close() {
+        inProcessStores.values().remove(this);
+        if (socket != null) {
+            socket.close();
+        }
+        asyncSender.shutdownNow();
+        reservations.close();
     }
     
     private void handleRequest(DatagramPacket packet) {
@@ -47,6 +93,7 @@ public class UDPCommunicator {
             UDPRequest request = UDPRequest.fromString(received);
             
             UDPResponse response = processMarshalledRequest(request);
+            server.syncWriteAheadLog();
             
             String responseStr = response.toString();
             byte[] responseData = responseStr.getBytes();
@@ -65,7 +112,16 @@ public class UDPCommunicator {
         }
     }
     
+    //Lets other stores in this JVM call this one directly; its UDP server keeps serving stores elsewhere
+    public void registerInProcess(String storePrefix) {
+        inProcessStores.put(storePrefix, this);
+    }
+    
     public UDPResponse sendMarshalledRequest(String storePrefix, UDPRequest request) {
+        UDPCommunicator local = inProcessStores.get(storePrefix);
+        if (local != null && local != this) {
+            return local.handleInProcess(request);
+        }
         try {
             Integer targetPort = storePorts.get(storePrefix);
             if (targetPort == null) {
@@ -99,17 +155,68 @@ public class UDPCommunicator {
         }
     }
     
+    //Handles a request from a co-located store on the caller's thread. The request and reply still go through
+    //their wire format, so the two stores never share mutable objects such as found items
+    private UDPResponse handleInProcess(UDPRequest request) {
+        try {
+            UDPResponse response = processMarshalledRequest(UDPRequest.fromString(request.toString()));
+            server.syncWriteAheadLog();
+            return UDPResponse.fromString(response.toString());
+        } catch (Exception e) {
+            return new UDPResponse(false, "Communication error: " + e.getMessage(), "COMM_ERROR");
+        }
+    }
+    
+    //Sends a request in the background, retrying on failure; for messages whose reply the caller does not need
+    public void sendAsync(String storePrefix, UDPRequest request) {
+        sendAsync(storePrefix, request, null);
+    }
+    
+    public void sendAsync(String storePrefix, UDPRequest request, Runnable onSuccess) {
+        sendAsync(storePrefix, request, onSuccess, null);
+    }
+    
+    //onRejected gets the reply if the store answered but refused the request
+    public void sendAsync(String storePrefix, UDPRequest request, Runnable onSuccess, Consumer<UDPResponse> onRejected) {
+        asyncSender.execute(() -> {
+            for (int attempt = 0; attempt < ASYNC_SEND_ATTEMPTS; attempt++) {
+                UDPResponse response = sendMarshalledRequest(storePrefix, request);
+                if (response.isSuccess()) {
+                    if (onSuccess != null) {
+                        onSuccess.run();
+                    }
+                    return;
+                }
+                if (!isTransportError(response)) {
+                    if (onRejected != null) {
+                        onRejected.accept(response);
+                    }
+                    return;
+                }
+            }
+            System.err.println("Giving up on " + request.getOperation() + " to " + storePrefix);
+        });
+    }
+    
+    private boolean isTransportError(UDPResponse response) {
+        return "TIMEOUT".equals(response.getErrorCode()) || "COMM_ERROR".equals(response.getErrorCode());
+    }
+    
     private UDPResponse processMarshalledRequest(UDPRequest request) {
         try {
             switch (request.getOperation()) {
                 case "PURCHASE":
                     return processPurchaseRequest(request);
+                case "PURCHASE_UNDO":
+                    return processPurchaseUndo(request);
                 case "FIND":
                     return processFindRequest(request);
-                case "EXCHANGE_CHECK":
-                    return processExchangeCheck(request);
-                case "EXCHANGE_PREPARE":
-                    return processExchangePrepare(request);
+                case "QUOTE":
+                    return processQuoteRequest(request);
+                case "EXCHANGE_RESERVE":
+                    return processExchangeReserve(request);
+                case "EXCHANGE_RENEW":
+                    return processExchangeRenew(request);
                 case "EXCHANGE_COMMIT":
                     return processExchangeCommit(request);
                 case "EXCHANGE_ROLLBACK":
@@ -138,109 +245,150 @@ public class UDPCommunicator {
         if (result.startsWith("SUCCESS")) {
             String[] parts = result.split(",");
             double newBudget = Double.parseDouble(parts[1]);
-            return new UDPResponse(true, "Purchase successful", newBudget);
+            double unitPrice = Double.parseDouble(parts[2]);
+            return new UDPResponse(true, "Purchase successful", newBudget, unitPrice);
         } else {
             String[] parts = result.split(",");
             return new UDPResponse(false, parts[1], "PURCHASE_FAILED");
         }
     }
     
+    //Answered with success whether or not there was anything left to give back, so a retry is harmless
+    private UDPResponse processPurchaseUndo(UDPRequest request) {
+        boolean undone = server.undoRemotePurchase(request.getCustomerID(), request.getItemID(), request.getQuantity(),
+                                                   request.getDate(), request.getBudget());
+        return new UDPResponse(true, undone ? "Purchase given back" : "Nothing to give back", "SUCCESS");
+    }
+    
     private UDPResponse processFindRequest(UDPRequest request) {
         List<Item> items = server.findLocalItems(request.getItemName());
         return new UDPResponse(true, "Items found", items);
     }
     
-    private UDPResponse processExchangeCheck(UDPRequest request) {
+    private UDPResponse processQuoteRequest(UDPRequest request) {
+        ReentrantReadWriteLock lock = server.getItemLock(request.getItemID());
+        lock.readLock().lock();
+        try {
+            Item item = server.getItem(request.getItemID());
+            if (item == null) {
+                return new UDPResponse(false, "Item not found", "ITEM_NOT_FOUND");
+            }
+            return new UDPResponse(true, "Price quoted", 0, item.getPrice());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    private UDPResponse processExchangeReserve(UDPRequest request) {
         String customerID = request.getCustomerID();
         String newItemID = request.getItemID();
         double currentBudget = request.getBudget();
         double oldItemPrice = request.getOldItemPrice();
         
-        Item newItem = server.getItem(newItemID);
-        if (newItem == null) {
-            return new UDPResponse(false, "New item not found", "ITEM_NOT_FOUND");
-        }
-        
-        if (newItem.getQuantity() <= 0) {
-            return new UDPResponse(false, "New item out of stock", "OUT_OF_STOCK");
-        }
-        
-        double priceDifference = newItem.getPrice() - oldItemPrice;
-        if (priceDifference > 0 && currentBudget < priceDifference) {
-            return new UDPResponse(false, "Insufficient budget for exchange", "INSUFFICIENT_BUDGET");
-        }
-        
         String customerStore = customerID.substring(0, 2);
         String newItemStore = newItemID.substring(0, 2);
         
-        if (!customerStore.equals(newItemStore)) {
-            List<Purchase> purchases = server.getCustomerPurchases(customerID);
-            if (purchases != null) {
-                for (Purchase p : purchases) {
-                    if (p.getItemID().startsWith(newItemStore)) {
-                        return new UDPResponse(false, "Already purchased from this store", "PURCHASE_LIMIT");
-                    }
-                }
+        ReentrantReadWriteLock lock = server.getItemLock(newItemID);
+        lock.writeLock().lock();
+        try {
+            Item newItem = server.getItem(newItemID);
+            if (newItem == null) {
+                return new UDPResponse(false, "New item not found", "ITEM_NOT_FOUND");
+            }
+            
+            if (newItem.getQuantity() <= 0) {
+                return new UDPResponse(false, "New item out of stock", "OUT_OF_STOCK");
+            }
+            
+            double priceDifference = newItem.getPrice() - oldItemPrice;
+            if (priceDifference > 0 && currentBudget < priceDifference) {
+                return new UDPResponse(false, "Insufficient budget for exchange", "INSUFFICIENT_BUDGET");
             }
+            
+            if (!customerStore.equals(newItemStore) && server.hasPurchasedFromStore(customerID, newItemStore)) {
+                return new UDPResponse(false, "Already purchased from this store", "PURCHASE_LIMIT");
+            }
+            
+            //The unit taken and the reservation holding it are logged together, so a restart restores both or neither
+            String transactionID = wal.atomically(() -> {
+                newItem.decrementQuantity();
+                server.logItemChange(newItem);
+                return reservations.reserve(customerID, newItemID, request.getOldItemID());
+            });
+            
+            return new UDPResponse(true, "Item reserved", currentBudget - priceDifference, newItem.getPrice(), transactionID);
+        } finally {
+            lock.writeLock().unlock();
         }
-        
-        double newBudget = currentBudget - priceDifference;
-        return new UDPResponse(true, "Exchange check passed", newBudget, newItem.getPrice());
     }
     
-    private UDPResponse processExchangePrepare(UDPRequest request) {
-        String customerID = request.getCustomerID();
-        String newItemID = request.getItemID();
-        String transactionID = UUID.randomUUID().toString();
-        
-        Item newItem = server.getItem(newItemID);
-        if (newItem == null || newItem.getQuantity() <= 0) {
-            return new UDPResponse(false, "Item unavailable", "UNAVAILABLE");
+    //A lease that already ran out is not renewed; its unit can still be taken again by the commit unless it was sold
+    private UDPResponse processExchangeRenew(UDPRequest request) {
+        if (reservations.renew(request.getTransactionID())) {
+            return new UDPResponse(true, "Reservation renewed", "RENEWED");
         }
-        
-        synchronized (newItem) {
-            if (newItem.getQuantity() <= 0) {
-                return new UDPResponse(false, "Item out of stock", "OUT_OF_STOCK");
+        if (reservations.isExpired(request.getTransactionID())) {
+            ReentrantReadWriteLock lock = server.getItemLock(request.getItemID());
+            lock.readLock().lock();
+            try {
+                Item item = server.getItem(request.getItemID());
+                if (item == null || item.getQuantity() <= 0) {
+                    return new UDPResponse(false, "Reservation expired and the item is no longer available", "RESERVATION_LOST");
+                }
+            } finally {
+                lock.readLock().unlock();
             }
-            newItem.decrementQuantity();
         }
-        
-        pendingExchanges.put(transactionID, new ExchangeTransaction(customerID, newItemID, request.getOldItemID()));
-        
-        return new UDPResponse(true, "Item reserved", 0.0, transactionID);
+        return new UDPResponse(false, "Reservation expired or settled", "RESERVATION_EXPIRED");
     }
     
     private UDPResponse processExchangeCommit(UDPRequest request) {
-        String customerID = request.getCustomerID();
-        String newItemID = request.getItemID();
-        double budget = request.getBudget();
-        double oldItemPrice = request.getOldItemPrice();
-        
-        Item newItem = server.getItem(newItemID);
-        if (newItem == null) {
-            return new UDPResponse(false, "Item not found", "NOT_FOUND");
+        String transactionID = request.getTransactionID();
+        if (reservations.settle(transactionID) != null) {
+            return new UDPResponse(true, "Exchange committed", "COMMIT");
+        }
+        if (!reservations.isExpired(transactionID)) {
+            return new UDPResponse(true, "Exchange already committed", "COMMIT");
         }
         
-        double priceDifference = newItem.getPrice() - oldItemPrice;
-        double newBudget = budget - priceDifference;
-        
-        pendingExchanges.values().removeIf(t -> 
-            t.customerID.equals(customerID) && t.newItemID.equals(newItemID));
-        
-        return new UDPResponse(true, "Exchange committed", newBudget);
+        //The lease ran out and the unit went back to stock; take it again if it is still there, otherwise the
+        //coordinator has to abort the exchange
+        ReentrantReadWriteLock lock = server.getItemLock(request.getItemID());
+        lock.writeLock().lock();
+        try {
+            Item item = server.getItem(request.getItemID());
+            if (item == null || item.getQuantity() <= 0) {
+                return new UDPResponse(false, "Reservation expired and the item is no longer available", "RESERVATION_LOST");
+            }
+            boolean claimed = wal.atomically(() -> {
+                if (!reservations.claimExpired(transactionID)) {
+                    return false;
+                }
+                item.decrementQuantity();
+                server.logItemChange(item);
+                return true;
+            });
+            if (!claimed) {
+                return new UDPResponse(true, "Exchange already committed", "COMMIT");
+            }
+            return new UDPResponse(true, "Exchange committed after lease expiry", "COMMIT_LATE");
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
     
     private UDPResponse processExchangeRollback(UDPRequest request) {
-        String newItemID = request.getItemID();
-        
-        Item newItem = server.getItem(newItemID);
-        if (newItem != null) {
-            synchronized (newItem) {
-                newItem.incrementQuantity(1);
+        //Only a still-pending reservation releases stock, so a duplicated rollback is harmless
+        wal.atomically(() -> {
+            ReservationManager.Reservation reservation = reservations.settle(request.getTransactionID());
+            if (reservation != null) {
+                adjustStock(reservation.getItemID(), 1);
+            } else {
+                //An aborted exchange will never commit, so its expiry no longer needs remembering
+                reservations.claimExpired(request.getTransactionID());
             }
-        }
-        
-        pendingExchanges.values().removeIf(t -> t.newItemID.equals(newItemID));
+            return null;
+        });
         
         return new UDPResponse(true, "Exchange rolled back", "ROLLBACK");
     }
@@ -249,11 +397,12 @@ public class UDPCommunicator {
         String customerID = request.getCustomerID();
         String oldItemID = request.getItemID();
         
-        Item oldItem = server.getItem(oldItemID);
-        if (oldItem != null) {
-            synchronized (oldItem) {
-                oldItem.incrementQuantity(1);
-            }
+        //A retried return for the same exchange is acknowledged without restocking twice
+        if (request.getTransactionID() != null && !appliedReturns.add(request.getTransactionID())) {
+            return new UDPResponse(true, "Item already returned", "SUCCESS");
+        }
+        
+        if (adjustStock(oldItemID, 1)) {
             return new UDPResponse(true, "Item returned", "SUCCESS");
         }
         
@@ -263,30 +412,31 @@ public class UDPCommunicator {
     private UDPResponse processExchangeUndoReturn(UDPRequest request) {
         String oldItemID = request.getItemID();
         
-        Item oldItem = server.getItem(oldItemID);
-        if (oldItem != null) {
-            synchronized (oldItem) {
-                if (oldItem.getQuantity() > 0) {
-                    oldItem.decrementQuantity();
-                }
-            }
+        if (request.getTransactionID() != null && !appliedReturns.remove(request.getTransactionID())) {
+            return new UDPResponse(true, "Nothing to undo", "SUCCESS");
+        }
+        
+        if (adjustStock(oldItemID, -1)) {
             return new UDPResponse(true, "Return undone", "SUCCESS");
         }
         
         return new UDPResponse(false, "Failed to undo return", "UNDO_FAILED");
     }
     
-    private static class ExchangeTransaction {
-        String customerID;
-        String newItemID;
-        String oldItemID;
-        long timestamp;
-        
-        ExchangeTransaction(String customerID, String newItemID, String oldItemID) {
-            this.customerID = customerID;
-            this.newItemID = newItemID;
-            this.oldItemID = oldItemID;
-            this.timestamp = System.currentTimeMillis();
+    //Changes an item's stock under its write lock, never going below zero; false if the item does not exist
+    private boolean adjustStock(String itemID, int delta) {
+        ReentrantReadWriteLock lock = server.getItemLock(itemID);
+        lock.writeLock().lock();
+        try {
+            Item item = server.getItem(itemID);
+            if (item == null) {
+                return false;
+            }
+            item.setQuantity(Math.max(0, item.getQuantity() + delta));
+            server.logItemChange(item);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 }
@@ -0,0 +1,46 @@
+package server;
+
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//FIFO of customers waiting on one item; a customer can only be queued once
+public class Waitlist {
+    private final Queue<String> queue;
+    private final Set<String> members;
+    private final AtomicInteger size;
+
+    public Waitlist() {
+        this.queue = new ConcurrentLinkedQueue<>();
+        this.members = ConcurrentHashMap.newKeySet();
+        this.size = new AtomicInteger();
+    }
+
+    //Returns the customer's position, or -1 if they were already waiting
+    public int offer(String customerID) {
+        if (!members.add(customerID)) {
+            return -1;
+        }
+        queue.offer(customerID);
+        return size.incrementAndGet();
+    }
+
+    public String poll() {
+        String customerID = queue.poll();
+        if (customerID != null) {
+            size.decrementAndGet();
+            members.remove(customerID);
+        }
+        return customerID;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+}
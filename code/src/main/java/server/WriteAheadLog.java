@@ -0,0 +1,286 @@
+package server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import models.Item;
+import models.Purchase;
+
+//Redo log of every change to a store's state, one record per line:
+//  ITEM|itemID|itemName|quantity|price       item state after the change (written under the item write lock);
+//                                            the name is escaped, since it is the one free-text field
+//  BUDGET|customerID|deltaCents              balance change (deltas, since concurrent CAS updates are unordered)
+//  BUY|customerID|itemID|epochDay|cents      purchase recorded
+//  UNBUY|customerID|itemID|epochDay|cents    purchase removed by a return or exchange
+//  WAIT|itemID|customerID                    customer joined a waitlist
+//  UNWAIT|itemID|customerID                  customer left a waitlist
+//  XOPEN|transactionID                       home side of a cross-store exchange applied, not yet completed or undone
+//  XCLOSE|transactionID                      home side of a cross-store exchange completed or undone
+//  RESERVE|transactionID|customerID|itemID|oldItemID   unit held for an exchange coordinated by another store
+//  UNRESERVE|transactionID                   reservation committed or rolled back
+//  EXPIRE|transactionID|epochMillis          reservation lease ran out and its unit went back to stock
+//  GROUP|<length>:<record>|...               records that take effect together or not at all
+//Records share the group-commit writer, so concurrent requests pay for one fsync per batch. The durability
+//mode decides how long a request waits for its records before it is answered.
+//The log is split into numbered segments "<name>.<seq>.log"; a new run always starts a new segment, and
+//segments folded into a snapshot are deleted.
+public class WriteAheadLog {
+    public enum Durability {
+        //Every record is on disk before the mutation that produced it returns
+        PER_OP,
+        //A request is answered once all of its records are on disk
+        BATCHED,
+        //Requests are answered immediately; a crash can lose the last unflushed batch
+        ASYNC
+    }
+
+    private final Path directory;
+    private final String name;
+    private final Pattern segmentName;
+    private final GroupCommitLog log;
+    private final Durability durability;
+    private final ThreadLocal<CompletableFuture<Void>> lastAppend;
+    private final ThreadLocal<List<String>> group;
+    private final AtomicLong appendedSinceRoll;
+    private long activeSegment;
+
+    public WriteAheadLog(Path base, Durability durability) throws IOException {
+        Path absolute = base.toAbsolutePath();
+        this.directory = absolute.getParent();
+        this.name = absolute.getFileName().toString();
+        this.segmentName = Pattern.compile(Pattern.quote(name) + "\\.(\\d+)\\.log");
+        List<Long> existing = listSegments();
+        this.activeSegment = existing.isEmpty() ? 1 : existing.get(existing.size() - 1) + 1;
+        this.log = new GroupCommitLog(segmentPath(activeSegment));
+        this.durability = durability;
+        this.lastAppend = new ThreadLocal<>();
+        this.group = new ThreadLocal<>();
+        this.appendedSinceRoll = new AtomicLong();
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    public void itemChanged(Item item) {
+        append("ITEM|" + item.getItemID() + "|" + escape(item.getItemName()) + "|" + item.getQuantity() + "|" + item.getPrice());
+    }
+
+    public void budgetChanged(String customerID, long deltaCents) {
+        if (deltaCents != 0) {
+            append("BUDGET|" + customerID + "|" + deltaCents);
+        }
+    }
+
+    public void purchaseAdded(Purchase purchase) {
+        append("BUY|" + purchaseFields(purchase));
+    }
+
+    public void purchaseRemoved(Purchase purchase) {
+        append("UNBUY|" + purchaseFields(purchase));
+    }
+
+    public void waitlistJoined(String itemID, String customerID) {
+        append("WAIT|" + itemID + "|" + customerID);
+    }
+
+    public void waitlistLeft(String itemID, String customerID) {
+        append("UNWAIT|" + itemID + "|" + customerID);
+    }
+
+    public void exchangeOpened(String transactionID) {
+        append("XOPEN|" + transactionID);
+    }
+
+    public void exchangeClosed(String transactionID) {
+        append("XCLOSE|" + transactionID);
+    }
+
+    public void reservationMade(ReservationManager.Reservation reservation) {
+        append("RESERVE|" + reservation.getTransactionID() + "|" + reservation.getCustomerID() + "|" +
+               reservation.getItemID() + "|" + (reservation.getOldItemID() == null ? "" : reservation.getOldItemID()));
+    }
+
+    public void reservationSettled(String transactionID) {
+        append("UNRESERVE|" + transactionID);
+    }
+
+    public void reservationExpired(String transactionID, long expiredAt) {
+        append("EXPIRE|" + transactionID + "|" + expiredAt);
+    }
+
+    //Runs changes whose records must survive a crash together or not at all. The records the calling thread
+    //appends meanwhile are written as one GROUP line, which is on disk when this returns whatever the durability mode.
+    public <T> T atomically(Supplier<T> changes) {
+        List<String> records = new ArrayList<>();
+        group.set(records);
+        T result;
+        try {
+            result = changes.get();
+        } finally {
+            group.remove();
+        }
+        if (!records.isEmpty()) {
+            StringBuilder line = new StringBuilder("GROUP");
+            for (String record : records) {
+                line.append('|').append(record.length()).append(':').append(record);
+            }
+            appendedSinceRoll.incrementAndGet();
+            await(log.append(line.toString()));
+        }
+        return result;
+    }
+
+    //Flushes and closes the active segment; the log takes no records afterwards
+    public void close() {
+        log.close();
+    }
+
+    //Waits until every record the calling thread appended is durable; called once per request in BATCHED mode
+    public void sync() {
+        CompletableFuture<Void> pending = lastAppend.get();
+        if (pending == null) {
+            return;
+        }
+        lastAppend.remove();
+        await(pending);
+    }
+
+    //Sealed segments (every one but the active segment), oldest first
+    public synchronized List<Long> sealedSegments() throws IOException {
+        List<Long> sealed = new ArrayList<>();
+        for (long seq : listSegments()) {
+            if (seq < activeSegment) {
+                sealed.add(seq);
+            }
+        }
+        return sealed;
+    }
+
+    public List<String> readSegment(long seq) throws IOException {
+        return GroupCommitLog.readRecords(segmentPath(seq));
+    }
+
+    //Seals the active segment and starts the next one; returns the sealed segment, or -1 if it was empty
+    public synchronized long roll() {
+        if (appendedSinceRoll.getAndSet(0) == 0) {
+            return -1;
+        }
+        long sealed = activeSegment;
+        await(log.roll(segmentPath(sealed + 1)));
+        activeSegment = sealed + 1;
+        return sealed;
+    }
+
+    public synchronized void deleteSegmentsThrough(long seq) throws IOException {
+        for (long existing : listSegments()) {
+            if (existing <= seq && existing < activeSegment) {
+                Files.deleteIfExists(segmentPath(existing));
+            }
+        }
+    }
+
+    private List<Long> listSegments() throws IOException {
+        List<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, name + ".*.log")) {
+            for (Path file : files) {
+                Matcher matcher = segmentName.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    segments.add(Long.parseLong(matcher.group(1)));
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private Path segmentPath(long seq) {
+        return directory.resolve(name + "." + String.format("%06d", seq) + ".log");
+    }
+
+    private void append(String record) {
+        List<String> pendingGroup = group.get();
+        if (pendingGroup != null) {
+            pendingGroup.add(record);
+            return;
+        }
+        appendedSinceRoll.incrementAndGet();
+        CompletableFuture<Void> durable = log.append(record);
+        switch (durability) {
+            case PER_OP:
+                await(durable);
+                break;
+            case BATCHED:
+                //The writer flushes in append order, so the thread's latest record covers the earlier ones
+                lastAppend.set(durable);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static String purchaseFields(Purchase purchase) {
+        return purchase.getCustomerID() + "|" + purchase.getItemID() + "|" + purchase.getPurchaseDate().toEpochDay() + "|" +
+               BudgetLedger.toCents(purchase.getPrice());
+    }
+
+    //Free text may hold the field separator or line breaks, written as \p, \n and \r; a backslash is doubled
+    static String escape(String text) {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (char c : text.toCharArray()) {
+            switch (c) {
+                case '\\': escaped.append("\\\\"); break;
+                case '|': escaped.append("\\p"); break;
+                case '\n': escaped.append("\\n"); break;
+                case '\r': escaped.append("\\r"); break;
+                default: escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    static String unescape(String text) {
+        if (text.indexOf('\\') < 0) {
+            return text;
+        }
+        StringBuilder unescaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c != '\\' || i + 1 == text.length()) {
+                unescaped.append(c);
+                continue;
+            }
+            char code = text.charAt(++i);
+            switch (code) {
+                case 'p': unescaped.append('|'); break;
+                case 'n': unescaped.append('\n'); break;
+                case 'r': unescaped.append('\r'); break;
+                default: unescaped.append(code);
+            }
+        }
+        return unescaped.toString();
+    }
+
+    private static void await(CompletableFuture<Void> durable) {
+        try {
+            durable.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw new UncheckedIOException("Write-ahead log flush failed", (IOException) cause);
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package startup;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import server.OverloadFilter;
+
+//Executor for the SOAP endpoints' HTTP requests, configured with system properties:
+//  dsms.http.mode     POOL (default) or VIRTUAL (a virtual thread per request, JDK 21+; falls back to POOL)
+//  dsms.http.threads  pool worker count (default 4 x cores)
+//  dsms.http.queue    requests allowed to wait for a worker (default 1024)
+//  dsms.http.overloadQueue  rejected requests allowed to wait for their 503 (default 64)
+//  dsms.http.statsIntervalSeconds  print pool stats this often (default 0, off)
+//A request arriving with every worker busy and the queue full is counted as rejected and handed to a
+//separate overload thread, where OverloadFilter answers it with 503; the HTTP server's dispatcher thread
+//never runs request work, so it keeps accepting connections. The overload thread reads each request's headers
+//before answering, so its queue is bounded too: past it the connection is closed without an answer.
+public class RequestExecutor extends ThreadPoolExecutor {
+    public enum Mode {
+        POOL,
+        VIRTUAL
+    }
+
+    private final String storePrefix;
+    private final AtomicLong rejected;
+    private final AtomicLong discarded;
+    private final ExecutorService overload;
+
+    private RequestExecutor(String storePrefix, int threads, int queueLimit, int overloadQueueLimit) {
+        super(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueLimit));
+        this.storePrefix = storePrefix;
+        this.rejected = new AtomicLong();
+        this.discarded = new AtomicLong();
+        AtomicInteger count = new AtomicInteger();
+        setThreadFactory(r -> {
+            Thread t = new Thread(r, storePrefix + "-http-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.overload = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(overloadQueueLimit), r -> {
+            Thread t = new Thread(r, storePrefix + "-http-overload");
+            t.setDaemon(true);
+            return t;
+        });
+        setRejectedExecutionHandler((task, executor) -> {
+            rejected.incrementAndGet();
+            if (executor.isShutdown()) {
+                return;
+            }
+            try {
+                overload.execute(() -> OverloadFilter.shed(task));
+            } catch (RejectedExecutionException e) {
+                discarded.incrementAndGet();
+                OverloadFilter.discard(task);
+            }
+        });
+        allowCoreThreadTimeOut(true);
+    }
+
+    //Builds the executor selected by the dsms.http.* properties
+    public static ExecutorService create(String storePrefix) {
+        Mode mode = Mode.valueOf(System.getProperty("dsms.http.mode", "POOL"));
+        if (mode == Mode.VIRTUAL) {
+            ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+            if (virtual != null) {
+                System.out.println(storePrefix + " HTTP executor: virtual thread per request");
+                return virtual;
+            }
+            System.out.println("Virtual threads are not available on this JDK, using a thread pool");
+        }
+
+        int threads = Integer.getInteger("dsms.http.threads", 4 * Runtime.getRuntime().availableProcessors());
+        int queueLimit = Integer.getInteger("dsms.http.queue", 1024);
+        int overloadQueueLimit = Integer.getInteger("dsms.http.overloadQueue", 64);
+        RequestExecutor executor = new RequestExecutor(storePrefix, threads, queueLimit, overloadQueueLimit);
+        System.out.println(storePrefix + " HTTP executor: " + threads + " threads, queue limit " + queueLimit);
+
+        long interval = Long.getLong("dsms.http.statsIntervalSeconds", 0);
+        if (interval > 0) {
+            ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, storePrefix + "-http-stats");
+                t.setDaemon(true);
+                return t;
+            });
+            reporter.scheduleAtFixedRate(() -> System.out.println(executor.stats()), interval, interval, TimeUnit.SECONDS);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.println(executor.stats())));
+        return executor;
+    }
+
+    @Override
+    protected void terminated() {
+        overload.shutdown();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    //Rejected requests whose connection was closed because the overload queue was full as well
+    public long getDiscardedCount() {
+        return discarded.get();
+    }
+
+    public String stats() {
+        return storePrefix + " HTTP executor: active=" + getActiveCount() + " queued=" + getQueue().size() +
+               " completed=" + getCompletedTaskCount() + " rejected=" + rejected.get() + " discarded=" + discarded.get() + " largestPool=" + getLargestPoolSize();
+    }
+
+    //Executors.newVirtualThreadPerTaskExecutor() looked up at runtime, so the code still builds for Java 8
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package startup;
+
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import javax.xml.ws.Endpoint;
+import javax.xml.ws.WebServiceFeature;
+import server.GzipFilter;
+import server.OverloadFilter;
+import server.StoreServerImpl;
+
+//Publishes a store's SOAP endpoint with its request executor and gzip for large responses. Fast Infoset (binary XML) is enabled on the
+//endpoint unless -Ddsms.soap.fastInfoset=false: clients that ask for it get binary replies and may send binary
+//requests, every other client keeps talking plain XML.
+class SoapEndpoints {
+    //The JAX-WS RI's feature class; the JDK bundles a repackaged copy
+    private static final String[] FAST_INFOSET_FEATURE = {
+        "com.sun.xml.ws.api.fastinfoset.FastInfosetFeature",
+        "com.sun.xml.internal.ws.api.fastinfoset.FastInfosetFeature"
+    };
+
+    static Endpoint publish(String serviceUrl, StoreServerImpl serverImpl, String storePrefix) throws IOException {
+        WebServiceFeature fastInfoset = fastInfosetFeature(Boolean.parseBoolean(System.getProperty("dsms.soap.fastInfoset", "true")));
+        Endpoint endpoint = fastInfoset != null ? Endpoint.create(serverImpl, fastInfoset) : Endpoint.create(serverImpl);
+
+        //Published on a context of our own HTTP server rather than by URL, so the context can carry the gzip filter
+        URL url = new URL(serviceUrl);
+        HttpServer httpServer = HttpServer.create(new InetSocketAddress(url.getHost(), url.getPort()), 0);
+        httpServer.setExecutor(RequestExecutor.create(storePrefix));
+        HttpContext context = httpServer.createContext(url.getPath());
+        context.getFilters().add(new OverloadFilter());
+        context.getFilters().add(new GzipFilter());
+        endpoint.publish(context);
+        httpServer.start();
+        return endpoint;
+    }
+
+    //Null if the JAX-WS runtime in use has no Fast Infoset support
+    private static WebServiceFeature fastInfosetFeature(boolean enabled) {
+        for (String className : FAST_INFOSET_FEATURE) {
+            try {
+                return (WebServiceFeature) Class.forName(className).getConstructor(boolean.class).newInstance(enabled);
+            } catch (ReflectiveOperationException | LinkageError e) {
+                //Try the next runtime
+            }
+        }
+        return null;
+    }
+}
@@ -1,6 +1,7 @@
 package startup;
 
 import javax.xml.ws.Endpoint;
+import server.JsonHttpEndpoint;
 import server.StoreServerImpl;
 
 public class StartONServer {
@@ -9,17 +10,27 @@ public class StartONServer {
             String storePrefix = "ON";
             int udpPort = 9002;
             String serviceUrl = "http://localhost:8081/ONServer";
+            int jsonPort = 8181;
             
             System.out.println("Starting ON Server...");
             
+            JsonHttpEndpoint.enableNoDelay();
             StoreServerImpl serverImpl = new StoreServerImpl(storePrefix, udpPort);
             
-            Endpoint endpoint = Endpoint.publish(serviceUrl, serverImpl);
+            Endpoint endpoint = SoapEndpoints.publish(serviceUrl, serverImpl, storePrefix);
+
+            boolean jsonEnabled = Boolean.parseBoolean(System.getProperty("dsms.json.enabled", "true"));
+            if (jsonEnabled) {
+                new JsonHttpEndpoint(serverImpl).start(jsonPort, RequestExecutor.create(storePrefix + "-json"));
+            }
             
             System.out.println("ON Server started successfully!");
             System.out.println("Service URL: " + serviceUrl);
             System.out.println("WSDL available at: " + serviceUrl + "?wsdl");
             System.out.println("UDP Port: " + udpPort);
+            if (jsonEnabled) {
+                System.out.println("JSON API: http://localhost:" + jsonPort + "/api/");
+            }
             System.out.println("\nPress Ctrl+C to stop the server...");
             
             Thread.currentThread().join();
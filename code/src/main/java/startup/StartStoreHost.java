@@ -0,0 +1,67 @@
+package startup;
+
+import java.util.*;
+import server.JsonHttpEndpoint;
+import server.StoreServerImpl;
+
+//Hosts several stores in one JVM, each published on its own endpoint. Requests between the hosted stores
+//are handled in memory; stores running in other processes are still reached over UDP.
+//Each store also gets its JSON API on its SOAP port + 100 unless -Ddsms.json.enabled=false.
+//Usage: StartStoreHost [QC] [ON] [BC]   (all three by default)
+public class StartStoreHost {
+    private static final Map<String, Integer> HTTP_PORTS = new LinkedHashMap<>();
+    private static final Map<String, Integer> UDP_PORTS = new HashMap<>();
+
+    static {
+        HTTP_PORTS.put("QC", 8080);
+        HTTP_PORTS.put("ON", 8081);
+        HTTP_PORTS.put("BC", 8082);
+        UDP_PORTS.put("QC", 9001);
+        UDP_PORTS.put("ON", 9002);
+        UDP_PORTS.put("BC", 9003);
+    }
+
+    public static void main(String[] args) {
+        List<String> stores = args.length > 0 ? Arrays.asList(args) : new ArrayList<>(HTTP_PORTS.keySet());
+        for (String store : stores) {
+            if (!HTTP_PORTS.containsKey(store)) {
+                System.err.println("Unknown store: " + store + " (expected QC, ON or BC)");
+                System.exit(1);
+            }
+        }
+
+        try {
+            System.out.println("Starting stores " + stores + " in one process...");
+            boolean jsonEnabled = Boolean.parseBoolean(System.getProperty("dsms.json.enabled", "true"));
+            JsonHttpEndpoint.enableNoDelay();
+
+            for (String storePrefix : stores) {
+                int udpPort = UDP_PORTS.get(storePrefix);
+                String serviceUrl = "http://localhost:" + HTTP_PORTS.get(storePrefix) + "/" + storePrefix + "Server";
+
+                StoreServerImpl serverImpl = new StoreServerImpl(storePrefix, udpPort);
+                serverImpl.enableInProcessRouting();
+
+                SoapEndpoints.publish(serviceUrl, serverImpl, storePrefix);
+
+                if (jsonEnabled) {
+                    int jsonPort = HTTP_PORTS.get(storePrefix) + 100;
+                    new JsonHttpEndpoint(serverImpl).start(jsonPort, RequestExecutor.create(storePrefix + "-json"));
+                    System.out.println(storePrefix + " JSON API: http://localhost:" + jsonPort + "/api/");
+                }
+
+                System.out.println(storePrefix + " Server started: " + serviceUrl + " (WSDL: " + serviceUrl + "?wsdl, UDP Port: " + udpPort + ")");
+            }
+
+            System.out.println("\nPress Ctrl+C to stop the servers...");
+
+            Thread.currentThread().join();
+
+        } catch (InterruptedException e) {
+            System.out.println("Server interrupted");
+        } catch (Exception e) {
+            System.err.println("Server error: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
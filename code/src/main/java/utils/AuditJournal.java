@@ -0,0 +1,217 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+//Binary audit journal written to memory-mapped segments "<base>.<n>.journal" of a fixed size. A segment
+//starts with a magic number and holds two kinds of records:
+//  STRING  byte 1, int id, short length, UTF-8 bytes       defines an interned operation, user or item ID
+//  EVENT   byte 2, long epochNanos, int operation, int user, int item (each -1 if none), byte result code
+//Each segment interns its own strings, so any segment can be decoded on its own. A zero byte (the mapped
+//file's initial fill) marks the end of the written records. Not thread-safe; the logger's writer owns it.
+public class AuditJournal {
+    public static final byte RESULT_OK = 0;
+    public static final byte RESULT_FAILED = 1;
+
+    private static final int MAGIC = 0x44534A31;
+    private static final byte END = 0;
+    private static final byte STRING = 1;
+    private static final byte EVENT = 2;
+    private static final int EVENT_SIZE = 1 + 8 + 4 + 4 + 4 + 1;
+    private static final int MAX_STRING_BYTES = 1024;
+    private static final int MIN_SEGMENT_BYTES = 64 * 1024;
+    private static final Pattern ITEM_ID = Pattern.compile("[A-Z]{2}\\d{4}");
+    private static final String[] FAILURE_MARKERS = {
+        "error", "invalid", "fail", "not found", "insufficient", "exceeded", "rejected", "expired", "already"
+    };
+
+    private final Path directory;
+    private final String baseName;
+    private final int segmentBytes;
+    private final Map<String, Integer> dictionary;
+    private long segment;
+    private MappedByteBuffer buffer;
+
+    public AuditJournal(Path base, int segmentBytes) throws IOException {
+        Path absolute = base.toAbsolutePath();
+        this.directory = absolute.getParent();
+        this.baseName = absolute.getFileName().toString();
+        this.segmentBytes = Math.max(segmentBytes, MIN_SEGMENT_BYTES);
+        this.dictionary = new HashMap<>();
+        List<Path> existing = segments(absolute);
+        this.segment = existing.isEmpty() ? 0 : segmentNumber(existing.get(existing.size() - 1));
+        openNextSegment();
+    }
+
+    public void append(String operation, long epochNanos, String userID, String itemID, byte resultCode) throws IOException {
+        int needed = EVENT_SIZE + definitionSize(operation) + definitionSize(userID) + definitionSize(itemID);
+        if (buffer.remaining() < needed) {
+            openNextSegment();
+        }
+        int op = intern(operation);
+        int user = intern(userID);
+        int item = intern(itemID);
+        buffer.put(EVENT).putLong(epochNanos).putInt(op).putInt(user).putInt(item).put(resultCode);
+    }
+
+    //Pushes written records to the file
+    public void force() {
+        buffer.force();
+    }
+
+    public void close() {
+        force();
+    }
+
+    //Coarse outcome of a logged result message
+    public static byte resultCode(String result) {
+        String lower = result == null ? "" : result.toLowerCase(Locale.ROOT);
+        for (String marker : FAILURE_MARKERS) {
+            if (lower.contains(marker)) {
+                return RESULT_FAILED;
+            }
+        }
+        return RESULT_OK;
+    }
+
+    //First item ID mentioned in a logged parameter string, or null
+    public static String itemOf(String params) {
+        if (params == null) {
+            return null;
+        }
+        Matcher matcher = ITEM_ID.matcher(params);
+        return matcher.find() ? matcher.group() : null;
+    }
+
+    //Segments of a journal in write order
+    public static List<Path> segments(Path base) throws IOException {
+        Path absolute = base.toAbsolutePath();
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(absolute.getParent(),
+                                                                    absolute.getFileName() + ".*.journal")) {
+            for (Path file : files) {
+                if (segmentNumber(file) > 0) {
+                    segments.add(file);
+                }
+            }
+        }
+        segments.sort(Comparator.comparingLong(AuditJournal::segmentNumber));
+        return segments;
+    }
+
+    //Reads every event of one segment in order
+    public static void read(Path segmentFile, EntryHandler handler) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(segmentFile));
+        if (data.remaining() < 4 || data.getInt() != MAGIC) {
+            throw new IOException("Not an audit journal segment: " + segmentFile);
+        }
+        Map<Integer, String> strings = new HashMap<>();
+        while (data.hasRemaining()) {
+            byte type = data.get();
+            if (type == STRING) {
+                int id = data.getInt();
+                byte[] bytes = new byte[data.getShort()];
+                data.get(bytes);
+                strings.put(id, new String(bytes, StandardCharsets.UTF_8));
+            } else if (type == EVENT) {
+                long epochNanos = data.getLong();
+                int operation = data.getInt();
+                int user = data.getInt();
+                int item = data.getInt();
+                byte result = data.get();
+                handler.handle(new Entry(operation < 0 ? null : strings.get(operation), epochNanos,
+                                         user < 0 ? null : strings.get(user), item < 0 ? null : strings.get(item), result));
+            } else if (type == END) {
+                return;
+            } else {
+                throw new IOException("Corrupt audit journal segment " + segmentFile + " at offset " + (data.position() - 1));
+            }
+        }
+    }
+
+    //-1 for a missing value
+    private int intern(String value) {
+        if (value == null) {
+            return -1;
+        }
+        Integer id = dictionary.get(value);
+        if (id == null) {
+            id = dictionary.size();
+            dictionary.put(value, id);
+            byte[] bytes = encode(value);
+            buffer.put(STRING).putInt(id).putShort((short) bytes.length).put(bytes);
+        }
+        return id;
+    }
+
+    private int definitionSize(String value) {
+        if (value == null || dictionary.containsKey(value)) {
+            return 0;
+        }
+        return 1 + 4 + 2 + encode(value).length;
+    }
+
+    private static byte[] encode(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return bytes.length <= MAX_STRING_BYTES ? bytes : Arrays.copyOf(bytes, MAX_STRING_BYTES);
+    }
+
+    private void openNextSegment() throws IOException {
+        if (buffer != null) {
+            buffer.force();
+        }
+        segment++;
+        Path file = directory.resolve(baseName + "." + String.format("%06d", segment) + ".journal");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE)) {
+            //The mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+        buffer.putInt(MAGIC);
+        dictionary.clear();
+    }
+
+    private static long segmentNumber(Path file) {
+        String name = file.getFileName().toString();
+        int end = name.lastIndexOf(".journal");
+        int start = name.lastIndexOf('.', end - 1);
+        try {
+            return Long.parseLong(name.substring(start + 1, end));
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    public interface EntryHandler {
+        void handle(Entry entry) throws IOException;
+    }
+
+    public static class Entry {
+        private final String operation;
+        private final long epochNanos;
+        private final String userID;
+        private final String itemID;
+        private final byte resultCode;
+
+        Entry(String operation, long epochNanos, String userID, String itemID, byte resultCode) {
+            this.operation = operation;
+            this.epochNanos = epochNanos;
+            this.userID = userID;
+            this.itemID = itemID;
+            this.resultCode = resultCode;
+        }
+
+        public String getOperation() { return operation; }
+        public long getEpochNanos() { return epochNanos; }
+        public String getUserID() { return userID; }
+        public String getItemID() { return itemID; }
+        public byte getResultCode() { return resultCode; }
+    }
+}
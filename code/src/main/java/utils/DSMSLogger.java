@@ -1,25 +1,225 @@
 package utils;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
+//Audit log. Callers only enqueue an event into a lock-free ring buffer; a background writer formats
+//queued events in batches and appends them through one long-lived file channel, and/or to a binary
+//AuditJournal next to the text log.
 public class DSMSLogger {
+    public enum Format {
+        TEXT,
+        BINARY,
+        BOTH
+    }
+
+    public enum OverflowPolicy {
+        //Wait for the writer to make room, so no event is lost
+        BLOCK,
+        //Discard the event and count it; the count is written to the log once there is room again
+        DROP
+    }
+
+    private static final int DEFAULT_CAPACITY = 8192;
+    private static final int BATCH_SIZE = 512;
+    private static final long IDLE_PARK_NANOS = 100_000_000L;
+    private static final int DEFAULT_JOURNAL_SEGMENT_BYTES = 16 * 1024 * 1024;
+
     private final String logFileName;
     private final DateTimeFormatter formatter;
-    
+    private final MpscRingBuffer<Event> buffer;
+    private final OverflowPolicy overflowPolicy;
+    private final Format format;
+    private final AtomicLong dropped;
+    private final AtomicLong written;
+    private final AtomicLong enqueued;
+    private final Thread writer;
+    private volatile boolean writerIdle;
+    private volatile boolean closed;
+
     public DSMSLogger(String logFileName) {
+        this(logFileName, Integer.getInteger("dsms.log.capacity", DEFAULT_CAPACITY),
+             OverflowPolicy.valueOf(System.getProperty("dsms.log.overflow", "BLOCK")),
+             Format.valueOf(System.getProperty("dsms.log.format", "TEXT")));
+    }
+
+    public DSMSLogger(String logFileName, int capacity, OverflowPolicy overflowPolicy) {
+        this(logFileName, capacity, overflowPolicy, Format.TEXT);
+    }
+
+    public DSMSLogger(String logFileName, int capacity, OverflowPolicy overflowPolicy, Format format) {
         this.logFileName = logFileName;
         this.formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        this.buffer = new MpscRingBuffer<>(capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.format = format;
+        this.dropped = new AtomicLong();
+        this.written = new AtomicLong();
+        this.enqueued = new AtomicLong();
+        this.writer = new Thread(this::writeLoop, logFileName + "-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    public void logOperation(String operation, String userID, String params, String result) {
+        Instant now = Instant.now();
+        Event event = new Event(now.getEpochSecond() * 1_000_000_000L + now.getNano(), operation, userID, params, result);
+        while (!buffer.offer(event)) {
+            if (overflowPolicy == OverflowPolicy.DROP || closed || !writer.isAlive()) {
+                dropped.incrementAndGet();
+                return;
+            }
+            LockSupport.unpark(writer);
+            Thread.yield();
+        }
+        enqueued.incrementAndGet();
+        if (writerIdle) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    //Waits until every event enqueued before the call has been written
+    public void flush() {
+        long target = enqueued.get();
+        while (written.get() < target && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(1_000_000L);
+        }
     }
-    
-    public synchronized void logOperation(String operation, String userID, String params, String result) {
-        try (FileWriter writer = new FileWriter(logFileName, true)) {
-            String timestamp = LocalDateTime.now().format(formatter);
-            String logEntry = String.format("[%s] %s - User: %s - Params: %s - Result: %s%n", 
-                                           timestamp, operation, userID, params, result);
-            writer.write(logEntry);
+
+    //Writes what is queued and stops the writer; later events are dropped
+    public void close() {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+        LockSupport.unpark(writer);
+    }
+
+    private void writeLoop() {
+        List<Event> batch = new ArrayList<>(BATCH_SIZE);
+        StringBuilder lines = new StringBuilder();
+        long reportedDrops = 0;
+        FileChannel channel = null;
+        AuditJournal journal = null;
+
+        try {
+            if (format != Format.BINARY) {
+                channel = FileChannel.open(Paths.get(logFileName), StandardOpenOption.CREATE,
+                                           StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            if (format != Format.TEXT) {
+                journal = new AuditJournal(Paths.get(journalBase()),
+                                           Integer.getInteger("dsms.log.journalSegmentBytes", DEFAULT_JOURNAL_SEGMENT_BYTES));
+            }
+            while (true) {
+                if (buffer.drainTo(batch, BATCH_SIZE) == 0) {
+                    if (closed) {
+                        return;
+                    }
+                    writerIdle = true;
+                    if (buffer.isEmpty()) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                    writerIdle = false;
+                    continue;
+                }
+
+                int events = batch.size();
+                long drops = dropped.get();
+                if (drops > reportedDrops) {
+                    Event overflow = new Event(System.currentTimeMillis() * 1_000_000L, "LOG_OVERFLOW", "-", "",
+                                               (drops - reportedDrops) + " events dropped");
+                    batch.add(0, overflow);
+                    reportedDrops = drops;
+                }
+                for (Event event : batch) {
+                    if (channel != null) {
+                        appendLine(lines, formatter, event.epochNanos, event.operation, event.userID, event.params, event.result);
+                    }
+                    if (journal != null) {
+                        journal.append(event.operation, event.epochNanos, event.userID, AuditJournal.itemOf(event.params),
+                                       AuditJournal.resultCode(event.result));
+                    }
+                }
+                if (channel != null) {
+                    write(channel, lines);
+                }
+                written.addAndGet(events);
+                batch.clear();
+                lines.setLength(0);
+            }
         } catch (IOException e) {
             System.err.println("Failed to write to log: " + e.getMessage());
+        } finally {
+            if (journal != null) {
+                journal.close();
+            }
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    System.err.println("Failed to close log: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    //"QC_server.log" journals to "QC_server.<n>.journal"
+    private String journalBase() {
+        return logFileName.endsWith(".log") ? logFileName.substring(0, logFileName.length() - 4) : logFileName;
+    }
+
+    //The text log line format, shared with the journal decoder
+    static void appendLine(StringBuilder lines, DateTimeFormatter formatter, long epochNanos, String operation,
+                           String userID, String params, String result) {
+        lines.append('[');
+        Instant instant = Instant.ofEpochSecond(0, epochNanos);
+        formatter.formatTo(LocalDateTime.ofInstant(instant, ZoneId.systemDefault()), lines);
+        lines.append("] ").append(operation)
+             .append(" - User: ").append(userID)
+             .append(" - Params: ").append(params)
+             .append(" - Result: ").append(result)
+             .append(System.lineSeparator());
+    }
+
+    private void write(FileChannel channel, StringBuilder lines) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    private static class Event {
+        final long epochNanos;
+        final String operation;
+        final String userID;
+        final String params;
+        final String result;
+
+        Event(long epochNanos, String operation, String userID, String params, String result) {
+            this.epochNanos = epochNanos;
+            this.operation = operation;
+            this.userID = userID;
+            this.params = params;
+            this.result = result;
         }
     }
 }
@@ -0,0 +1,98 @@
+package utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+//Offline reader for AuditJournal segments.
+//Usage: JournalDecoder <journal base or segment file>... [--customer ID] [--item ID] [--op OPERATION]
+//                      [--from yyyy-MM-ddTHH:mm:ss] [--to yyyy-MM-ddTHH:mm:ss] [--text]
+//A base such as "QC_server" reads every "QC_server.<n>.journal" segment in order. Without --text each
+//matching event is printed as "epochNanos,operation,user,item,result"; with --text it is printed in the
+//server log's text format (the journal keeps the item and result code, not the full parameters and message).
+public class JournalDecoder {
+    public static void main(String[] args) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        String customer = null;
+        String item = null;
+        String operation = null;
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        boolean text = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--customer": customer = args[++i]; break;
+                case "--item": item = args[++i]; break;
+                case "--op": operation = args[++i]; break;
+                case "--from": from = toEpochNanos(args[++i]); break;
+                case "--to": to = toEpochNanos(args[++i]); break;
+                case "--text": text = true; break;
+                default: {
+                    Path path = Paths.get(args[i]);
+                    if (Files.isRegularFile(path)) {
+                        segments.add(path);
+                    } else {
+                        segments.addAll(AuditJournal.segments(path));
+                    }
+                }
+            }
+        }
+
+        if (segments.isEmpty()) {
+            System.err.println("Usage: JournalDecoder <journal base or segment file>... [--customer ID] [--item ID] " +
+                               "[--op OPERATION] [--from yyyy-MM-ddTHH:mm:ss] [--to yyyy-MM-ddTHH:mm:ss] [--text]");
+            System.exit(1);
+        }
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        StringBuilder line = new StringBuilder();
+        String customerFilter = customer;
+        String itemFilter = item;
+        String operationFilter = operation;
+        long fromNanos = from;
+        long toNanos = to;
+        boolean asText = text;
+
+        for (Path segment : segments) {
+            AuditJournal.read(segment, entry -> {
+                if ((customerFilter != null && !customerFilter.equals(entry.getUserID())) ||
+                    (itemFilter != null && !itemFilter.equals(entry.getItemID())) ||
+                    (operationFilter != null && !operationFilter.equals(entry.getOperation())) ||
+                    entry.getEpochNanos() < fromNanos || entry.getEpochNanos() > toNanos) {
+                    return;
+                }
+                line.setLength(0);
+                String result = entry.getResultCode() == AuditJournal.RESULT_OK ? "OK" : "FAILED";
+                if (asText) {
+                    DSMSLogger.appendLine(line, formatter, entry.getEpochNanos(), entry.getOperation(), entry.getUserID(),
+                                          entry.getItemID() == null ? "" : entry.getItemID(), result);
+                } else {
+                    line.append(entry.getEpochNanos()).append(',').append(entry.getOperation()).append(',')
+                        .append(entry.getUserID()).append(',').append(entry.getItemID() == null ? "" : entry.getItemID())
+                        .append(',').append(result).append('\n');
+                }
+                out.write(line.toString());
+            });
+        }
+        out.flush();
+    }
+
+    private static long toEpochNanos(String dateTime) {
+        LocalDateTime local = LocalDateTime.parse(dateTime);
+        Instant instant = local.atZone(ZoneId.systemDefault()).toInstant();
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+}
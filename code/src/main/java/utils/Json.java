@@ -0,0 +1,87 @@
+package utils;
+
+//The little JSON the HTTP binding needs: flat objects whose values are strings
+public class Json {
+    //{"name":"value"}
+    public static String object(String name, String value) {
+        StringBuilder json = new StringBuilder(value.length() + name.length() + 8);
+        json.append('{');
+        quote(json, name);
+        json.append(':');
+        quote(json, value);
+        return json.append('}').toString();
+    }
+
+    public static void quote(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    //Value of a top-level string field, or null if the object has no such field
+    public static String stringField(String json, String name) {
+        String key = "\"" + name + "\"";
+        int at = json.indexOf(key);
+        while (at >= 0) {
+            int i = skipSpace(json, at + key.length());
+            if (i < json.length() && json.charAt(i) == ':') {
+                i = skipSpace(json, i + 1);
+                if (i < json.length() && json.charAt(i) == '"') {
+                    return unquote(json, i + 1);
+                }
+            }
+            at = json.indexOf(key, at + 1);
+        }
+        return null;
+    }
+
+    private static int skipSpace(String json, int i) {
+        while (i < json.length() && Character.isWhitespace(json.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static String unquote(String json, int start) {
+        StringBuilder value = new StringBuilder();
+        for (int i = start; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (c == '"') {
+                return value.toString();
+            }
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            char escaped = json.charAt(++i);
+            switch (escaped) {
+                case 'n': value.append('\n'); break;
+                case 'r': value.append('\r'); break;
+                case 't': value.append('\t'); break;
+                case 'b': value.append('\b'); break;
+                case 'f': value.append('\f'); break;
+                case 'u':
+                    value.append((char) Integer.parseInt(json.substring(i + 1, i + 5), 16));
+                    i += 4;
+                    break;
+                default: value.append(escaped);
+            }
+        }
+        throw new IllegalArgumentException("Unterminated JSON string");
+    }
+}
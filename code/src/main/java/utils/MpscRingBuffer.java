@@ -0,0 +1,68 @@
+package utils;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+//Bounded lock-free queue for many producers and a single consumer. Producers claim a sequence number with
+//one CAS and publish into its slot; the consumer takes slots in sequence order and clears them for reuse.
+public class MpscRingBuffer<T> {
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+    private final AtomicLong tail;
+    private final AtomicLong head;
+
+    public MpscRingBuffer(int capacity) {
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.tail = new AtomicLong();
+        this.head = new AtomicLong();
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    //False if the buffer is full
+    public boolean offer(T value) {
+        while (true) {
+            long claimed = tail.get();
+            if (claimed - head.get() > mask) {
+                return false;
+            }
+            if (tail.compareAndSet(claimed, claimed + 1)) {
+                slots.lazySet((int) claimed & mask, value);
+                return true;
+            }
+        }
+    }
+
+    //Consumer only: moves up to max published values into the list and returns how many were taken
+    public int drainTo(List<T> sink, int max) {
+        long next = head.get();
+        int taken = 0;
+        while (taken < max) {
+            int index = (int) next & mask;
+            T value = slots.get(index);
+            if (value == null) {
+                //Empty, or claimed by a producer that has not published yet
+                break;
+            }
+            slots.lazySet(index, null);
+            sink.add(value);
+            next++;
+            taken++;
+        }
+        head.lazySet(next);
+        return taken;
+    }
+
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+}
@@ -1,6 +1,45 @@
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpServer;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import client.AsyncStoreClient;
+import client.JsonStoreClient;
+import client.StoreClient;
+import interfaces.StoreServer;
+import models.Item;
+import models.Purchase;
+import models.UDPRequest;
+import models.UDPResponse;
+import server.ExchangeCoordinatorLog;
+import server.GzipFilter;
+import server.JsonHttpEndpoint;
+import server.OverloadFilter;
+import server.StoreServerImpl;
+import server.StoreSnapshotter;
+import server.WriteAheadLog;
+import startup.RequestExecutor;
 
 public class ComprehensiveTestRunner {
     
@@ -8,6 +47,8 @@ public class ComprehensiveTestRunner {
     private static int passedTests = 0;
     private static int failedTests = 0;
     private static List<String> failedTestDetails = new ArrayList<>();
+    //Stores a persistence or recovery test started, closed when the test ends
+    private static List<StoreServerImpl> openStores = new ArrayList<>();
     
     private static client.generated.qc.StoreServer qcServer;
     private static client.generated.on.StoreServer onServer;
@@ -23,17 +64,9 @@ public class ComprehensiveTestRunner {
             // Connect to web services
             System.out.println("Connecting to web services...");
             
-            client.generated.qc.StoreServerService qcService = 
-                new client.generated.qc.StoreServerService(new URL("http://localhost:8080/QCServer?wsdl"));
-            qcServer = qcService.getStoreServerImplPort();
-            
-            client.generated.on.StoreServerService onService = 
-                new client.generated.on.StoreServerService(new URL("http://localhost:8081/ONServer?wsdl"));
-            onServer = onService.getStoreServerImplPort();
-            
-            client.generated.bc.StoreServerService bcService = 
-                new client.generated.bc.StoreServerService(new URL("http://localhost:8082/BCServer?wsdl"));
-            bcServer = bcService.getStoreServerImplPort();
+            qcServer = client.StorePorts.qc();
+            onServer = client.StorePorts.on();
+            bcServer = client.StorePorts.bc();
             
             System.out.println("✓ Connected to all servers\n");
             
@@ -43,6 +76,10 @@ public class ComprehensiveTestRunner {
             runCustomerExchangeTests();
             runEdgeCaseTests();
             runConcurrencyTests();
+            runPersistenceTests();
+            runRecoveryTests();
+            runHttpTests();
+            runClientTests();
             
             printSummary();
             
@@ -91,6 +128,17 @@ public class ComprehensiveTestRunner {
             return result.contains("QC1001") || result.contains("Coffee");
         });
         
+        test("Bulk Add Items", () -> {
+            String result = qcServer.addItems("QCM1111", "QC8101,Flour,10,2.50;QC8102,Salt,5,1.25;QC8101,Flour,5,2.50");
+            return result.contains("QC8101: Item added") && result.contains("QC8102: Item added")
+                && result.contains("New quantity: 15");
+        });
+        
+        test("Bulk Remove Items", () -> {
+            String result = qcServer.removeItems("QCM1111", "QC8101,3;QC8102,10;QC8199,1");
+            return result.contains("New quantity: 12") && result.contains("set to 0") && result.contains("QC8199: Item not found");
+        });
+        
         test("Reject Invalid Manager ID", () -> {
             String result = qcServer.addItem("INVALID", "QC1001", "Test", 1, 1.0);
             return result.contains("Invalid");
@@ -142,6 +190,48 @@ public class ComprehensiveTestRunner {
             return result.contains("waitlist") || result.contains("Position");
         });
         
+        test("Cart Checkout Across Stores", () -> {
+            qcServer.addItem("QCM1111", "QC8201", "CartItemA", 5, 2.00);
+            qcServer.addItem("QCM1111", "QC8202", "CartItemB", 5, 3.00);
+            String result = qcServer.purchaseItems("QCU1212", "QC8201,2;QC8202,1;BC1001,1", today);
+            return result.contains("Local items purchased for $7.00") && result.contains("BC1001: Purchase successful");
+        });
+        
+        test("Cart Checkout From Two Remote Stores", () -> {
+            String result = qcServer.purchaseItems("QCU1414", "ON1002,1;BC1002,1", today);
+            return result.contains("ON1002: Purchase successful") && result.contains("BC1002: Purchase successful") &&
+                   qcServer.purchaseItem("QCU1414", "QC1003", 1, today).contains("Remaining budget: $989.52");
+        });
+        
+        test("Reject Cart With Two Lines From One Remote Store", () -> {
+            String result = qcServer.purchaseItems("QCU1515", "ON1001,1;ON1003,1", today);
+            return result.startsWith("Cart rejected. Purchase limit exceeded for store ON") &&
+                   qcServer.purchaseItem("QCU1515", "ON1003", 1, today).contains("successful");
+        });
+        
+        test("Cart Checkout Is All-or-Nothing Locally", () -> {
+            qcServer.addItem("QCM1111", "QC8203", "CartItemC", 1, 1.00);
+            String result = qcServer.purchaseItems("QCU1313", "QC8203,1;QC8201,99", today);
+            String list = qcServer.listItemAvailability("QCM1111");
+            return result.contains("Cart rejected") && list.contains("QC8203 CartItemC 1");
+        });
+        
+        test("Cart With A Failing Remote Line Buys Nothing", () -> {
+            qcServer.addItem("QCM1111", "QC8204", "CartItemD", 3, 1.00);
+            String stockBefore = itemLine(onServer.listItemAvailability("ONM1111"), "ON1001");
+            String result = qcServer.purchaseItems("QCU1616", "QC8204,1;ON1001,1;BC9999,1", today);
+            return result.contains("BC9999: Purchase failed") && result.contains("Cart rejected") &&
+                   qcServer.listItemAvailability("QCM1111").contains("QC8204 CartItemD 3") &&
+                   itemLine(onServer.listItemAvailability("ONM1111"), "ON1001").equals(stockBefore) &&
+                   qcServer.purchaseItem("QCU1616", "QC1003", 1, today).contains("Remaining budget: $997.50") &&
+                   qcServer.purchaseItem("QCU1616", "ON1002", 1, today).contains("successful");
+        });
+        
+        test("Reject Cart With Malformed Item ID", () -> {
+            String result = qcServer.purchaseItems("QCU1111", "X,1;QC1001,1", today);
+            return result.equals("Cart rejected. Invalid item ID X");
+        });
+        
         test("Reject Invalid Quantity (0 or negative)", () -> {
             String result = qcServer.purchaseItem("QCU1111", "QC1001", 0, today);
             return result.contains("Invalid quantity") || result.contains("greater than 0");
@@ -287,6 +377,501 @@ public class ComprehensiveTestRunner {
         });
     }
     
+    // ==================== PERSISTENCE TESTS ====================
+    
+    //Each test writes through a store or log of its own in a fresh data directory, then closes it and starts the
+    //store again on a spare UDP port from what was left on disk
+    private static void runPersistenceTests() {
+        printSection("PERSISTENCE");
+        
+        test("Recover Store State After Restart", () -> inDataDirectory(dir -> {
+            StoreServerImpl store = openStore("QC", 9107, dir);
+            store.addItem("QCM1111", "QC7001", "Kettle", 3, 20.00);
+            store.purchaseItem("QCU1111", "QC7001", 1, getCurrentDate());
+            store.close();
+            
+            StoreServerImpl restarted = openStore("QC", 9107, dir);
+            return restarted.getItem("QC7001").getQuantity() == 2 &&
+                   restarted.getCustomerPurchases("QCU1111").stream().anyMatch(p -> p.getItemID().equals("QC7001")) &&
+                   restarted.purchaseItem("QCU1111", "QC1001", 1, getCurrentDate()).contains("Remaining budget: $974.01");
+        }));
+        
+        test("Recover Item Name With Separator And Line Break", () -> inDataDirectory(dir -> {
+            StoreServerImpl store = openStore("QC", 9112, dir);
+            store.addItem("QCM1111", "QC7004", "Mug|Large\nBlue \\ Red", 2, 8.00);
+            store.addItem("QCM1111", "QC7005", "Plate", 1, 3.00);
+            store.close();
+            
+            StoreServerImpl restarted = openStore("QC", 9112, dir);
+            Item mug = restarted.getItem("QC7004");
+            Item plate = restarted.getItem("QC7005");
+            return mug != null && mug.getItemName().equals("Mug|Large\nBlue \\ Red") && mug.getQuantity() == 2 &&
+                   plate != null && plate.getQuantity() == 1;
+        }));
+        
+        test("Ignore Truncated Last Log Record", () -> inDataDirectory(dir -> {
+            WriteAheadLog wal = new WriteAheadLog(dir.resolve("QC_wal"), WriteAheadLog.Durability.PER_OP);
+            wal.itemChanged(new Item("QC1001", "Coffee", 3, 5.99));
+            wal.close();
+            //The crash cut the next record short: no newline, price missing its last digit
+            Files.write(dir.resolve("QC_wal.000001.log"), "ITEM|QC1001|Coffee|2|5.9".getBytes(), StandardOpenOption.APPEND);
+            
+            Item coffee = openStore("QC", 9110, dir).getItem("QC1001");
+            return coffee.getQuantity() == 3 && coffee.getPrice() == 5.99;
+        }));
+        
+        test("Waitlist Fulfilment Is Not Logged As Purchase", () -> inDataDirectory(dir -> {
+            StoreServerImpl store = openStore("QC", 9111, dir);
+            store.addItem("QCM1111", "QC7003", "Lamp", 0, 4.00);
+            store.addToWaitlist("QCU1111", "QC7003");
+            store.addItem("QCM1111", "QC7003", "Lamp", 1, 4.00);
+            
+            //A replay of the log must not buy the item again on the customer's behalf
+            Path log = dir.resolve("QC_server.log");
+            for (int i = 0; i < 50; i++) {
+                List<String> lines = Files.readAllLines(log);
+                if (lines.stream().anyMatch(line -> line.contains("WAITLIST_FULFILL - User: QCU1111"))) {
+                    return lines.stream().noneMatch(line -> line.contains(" PURCHASE - User: QCU1111"));
+                }
+                Thread.sleep(100);
+            }
+            return false;
+        }));
+        
+        test("Recover From Snapshot Plus Log Tail", () -> inDataDirectory(dir -> {
+            WriteAheadLog wal = new WriteAheadLog(dir.resolve("QC_wal"), WriteAheadLog.Durability.PER_OP);
+            wal.itemChanged(new Item("QC1001", "Coffee", 10, 5.99));
+            wal.itemChanged(new Item("QC7002", "Kettle", 5, 20.00));
+            new StoreSnapshotter("QC", dir.resolve("QC_snapshot.bin"), wal).snapshot();
+            //Written after the snapshot, so only the log has them
+            wal.itemChanged(new Item("QC7002", "Kettle", 4, 20.00));
+            wal.purchaseAdded(new Purchase("QCU1111", "QC7002", LocalDate.now(), 20.00));
+            wal.budgetChanged("QCU1111", -2000);
+            wal.close();
+            
+            boolean folded = Files.exists(dir.resolve("QC_snapshot.bin")) && !Files.exists(dir.resolve("QC_wal.000001.log"));
+            StoreServerImpl store = openStore("QC", 9109, dir);
+            return folded && store.getItem("QC7002").getQuantity() == 4 &&
+                   store.getCustomerPurchases("QCU1111").stream().anyMatch(p -> p.getItemID().equals("QC7002")) &&
+                   store.purchaseItem("QCU1111", "QC1001", 1, getCurrentDate()).contains("Remaining budget: $974.01");
+        }));
+        
+        test("Snapshot Keeps Only Returnable Purchases", () -> inDataDirectory(dir -> {
+            WriteAheadLog wal = new WriteAheadLog(dir.resolve("ON_wal"), WriteAheadLog.Durability.PER_OP);
+            wal.itemChanged(new Item("ON1001", "Coffee", 10, 5.99));
+            wal.purchaseAdded(new Purchase("QCU1111", "ON1001", LocalDate.now().minusDays(40), 5.99));
+            wal.purchaseAdded(new Purchase("ONU1111", "ON1002", LocalDate.now().minusDays(40), 3.99));
+            wal.purchaseAdded(new Purchase("ONU1111", "ON1003", LocalDate.now(), 2.50));
+            new StoreSnapshotter("ON", dir.resolve("ON_snapshot.bin"), wal).snapshot();
+            wal.close();
+            
+            //Past the return window only the fact that the item was bought is kept, not the purchase itself
+            StoreServerImpl store = openStore("ON", 9113, dir);
+            List<Purchase> purchases = store.getCustomerPurchases("ONU1111");
+            return purchases.size() == 1 && purchases.get(0).getItemID().equals("ON1003") &&
+                   store.returnItem("ONU1111", "ON1002", getCurrentDate()).equals("Return period expired (30 days limit)") &&
+                   store.hasPurchasedFromStore("QCU1111", "ON");
+        }));
+    }
+    
+    // ==================== CRASH RECOVERY TESTS ====================
+    
+    //Each test starts a store of its own in a fresh data directory on a spare UDP port, from the logs a crash
+    //would have left behind or after closing the store mid-exchange; its peers are the running servers
+    private static void runRecoveryTests() {
+        printSection("CRASH RECOVERY");
+        
+        test("Recover Exchange Interrupted Before Return", () -> inDataDirectory(dir -> {
+            Purchase oldPurchase = new Purchase("QCU1111", "BC1001", LocalDate.now(), 5.99);
+            Purchase newPurchase = new Purchase("QCU1111", "ON1002", LocalDate.now(), 3.99);
+            crashDuringExchange(dir, "XBEGIN-1", oldPurchase, newPurchase, false);
+            
+            StoreServerImpl store = openStore("QC", 9101, dir);
+            return waitForLine(dir.resolve("QC_exchange.log"), "XBEGIN-1|ABORTED") &&
+                   store.getCustomerPurchases("QCU1111").stream().anyMatch(p -> p.getItemID().equals("BC1001")) &&
+                   store.purchaseItem("QCU1111", "QC1001", 1, getCurrentDate()).contains("Remaining budget: $988.02");
+        }));
+        
+        test("Recover Exchange Interrupted At Commit", () -> inDataDirectory(dir -> {
+            Purchase oldPurchase = new Purchase("QCU1111", "BC1001", LocalDate.now(), 5.99);
+            Purchase newPurchase = new Purchase("QCU1111", "ON1002", LocalDate.now(), 3.99);
+            crashDuringExchange(dir, "XCOMMIT-1", oldPurchase, newPurchase, true);
+            
+            StoreServerImpl store = openStore("QC", 9102, dir);
+            List<Purchase> purchases = waitForLine(dir.resolve("QC_exchange.log"), "XCOMMIT-1|END") ?
+                                       store.getCustomerPurchases("QCU1111") : Collections.emptyList();
+            return purchases.size() == 1 && purchases.get(0).getItemID().equals("ON1002") &&
+                   store.purchaseItem("QCU1111", "QC1001", 1, getCurrentDate()).contains("Remaining budget: $990.02");
+        }));
+        
+        test("Keep Exchange Reservation Across Restart", () -> inDataDirectory(dir -> {
+            StoreServerImpl store = openStore("ON", 9103, dir);
+            UDPResponse reserved = udpCall(9103, new UDPRequest("QCU1111", "ON1001", "QC1001", 1000.0, 5.99));
+            store.close();
+            
+            StoreServerImpl restarted = openStore("ON", 9103, dir);
+            boolean stillHeld = restarted.getItem("ON1001").getQuantity() == 9;
+            UDPResponse committed = udpCall(9103, new UDPRequest("EXCHANGE_COMMIT", "QCU1111", "ON1001", reserved.getTransactionID()));
+            return reserved.isSuccess() && stillHeld && committed.isSuccess() &&
+                   committed.getMessage().equals("Exchange committed") && restarted.getItem("ON1001").getQuantity() == 9;
+        }));
+        
+        test("Reject Late Commit When Stock Is Gone", () -> inDataDirectory(dir -> {
+            StoreServerImpl store;
+            System.setProperty("dsms.reservationLeaseMillis", "200");
+            try {
+                store = openStore("ON", 9105, dir);
+            } finally {
+                System.clearProperty("dsms.reservationLeaseMillis");
+            }
+            store.addItem("ONM1111", "ON7001", "Last Unit", 1, 2.50);
+            UDPResponse reserved = udpCall(9105, new UDPRequest("QCU1111", "ON7001", "QC1001", 1000.0, 5.99));
+            for (int i = 0; i < 50 && store.getItem("ON7001").getQuantity() == 0; i++) {
+                Thread.sleep(100);
+            }
+            //The lease ran out and the unit went back on sale; someone else buys it before the commit arrives
+            store.purchaseItem("ONU1111", "ON7001", 1, getCurrentDate());
+            store.close();
+            
+            StoreServerImpl restarted = openStore("ON", 9105, dir);
+            UDPResponse committed = udpCall(9105, new UDPRequest("EXCHANGE_COMMIT", "QCU1111", "ON7001", reserved.getTransactionID()));
+            return reserved.isSuccess() && !committed.isSuccess() && "RESERVATION_LOST".equals(committed.getErrorCode()) &&
+                   restarted.getItem("ON7001").getQuantity() == 0;
+        }));
+    }
+    
+    // ==================== HTTP ENDPOINT TESTS ====================
+    
+    //Each test starts an HTTP server of its own on a free loopback port and stops it when the test ends
+    private static void runHttpTests() {
+        printSection("HTTP ENDPOINTS");
+        
+        test("Answer 503 When The Request Queue Is Full", () -> {
+            ExecutorService executor;
+            System.setProperty("dsms.http.threads", "1");
+            System.setProperty("dsms.http.queue", "1");
+            try {
+                executor = RequestExecutor.create("TEST");
+            } finally {
+                System.clearProperty("dsms.http.threads");
+                System.clearProperty("dsms.http.queue");
+            }
+            HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            server.setExecutor(executor);
+            HttpContext context = server.createContext("/", exchange -> {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            });
+            context.getFilters().add(new OverloadFilter());
+            server.start();
+            
+            //One request runs and one waits; the rest find the pool and its queue full
+            ExecutorService clients = Executors.newFixedThreadPool(6);
+            try {
+                URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/");
+                List<Future<String>> responses = new ArrayList<>();
+                for (int i = 0; i < 6; i++) {
+                    responses.add(clients.submit(() -> {
+                        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                        connection.setReadTimeout(10000);
+                        return connection.getResponseCode() + " " + connection.getHeaderField("Retry-After");
+                    }));
+                }
+                int served = 0;
+                int unavailable = 0;
+                for (Future<String> response : responses) {
+                    String status = response.get();
+                    if (status.equals("200 null")) {
+                        served++;
+                    } else if (status.equals("503 1")) {
+                        unavailable++;
+                    }
+                }
+                return served >= 1 && unavailable >= 1 && served + unavailable == 6;
+            } finally {
+                clients.shutdownNow();
+                server.stop(0);
+                executor.shutdownNow();
+            }
+        });
+        
+        test("JSON Client Round Trip", () -> inDataDirectory(dir -> {
+            StoreServerImpl store = openStore("QC", 9114, dir);
+            return withJsonEndpoint(store, url -> {
+                JsonStoreClient client = new JsonStoreClient(url);
+                String added = client.addItem("QCM1111", "QC8401", "Tea & Honey", 5, 3.50);
+                String bought = client.purchaseItem("QCU1111", "QC8401", 2, getCurrentDate());
+                return client.getStorePrefix().equals("QC") &&
+                       added.contains("successfully") && bought.contains("successful") &&
+                       store.getItem("QC8401").getItemName().equals("Tea & Honey") &&
+                       store.getItem("QC8401").getQuantity() == 3 &&
+                       itemLine(client.listItemAvailability("QCM1111"), "QC8401")
+                           .equals(itemLine(store.listItemAvailability("QCM1111"), "QC8401"));
+            });
+        }));
+        
+        test("JSON Endpoint Answers 400, 404 And 500", () ->
+            withJsonEndpoint(failingStore(new IllegalStateException("store offline")), url -> {
+                JsonStoreClient client = new JsonStoreClient(url);
+                String missingParameter = failureOf(() -> client.findItem("QCU1111", null));
+                String storeFailed = failureOf(client::getStorePrefix);
+                HttpURLConnection connection = (HttpURLConnection) new URL(url + "/api/noSuchOperation").openConnection();
+                int unknownStatus = connection.getResponseCode();
+                String unknownBody;
+                try (Scanner body = new Scanner(connection.getErrorStream(), "UTF-8")) {
+                    unknownBody = body.useDelimiter("\\A").next();
+                }
+                return "findItem failed with HTTP 400: Missing parameter: itemName".equals(missingParameter) &&
+                       "getStorePrefix failed with HTTP 500: Processing error: store offline".equals(storeFailed) &&
+                       unknownStatus == 404 && unknownBody.equals("{\"error\":\"Unknown operation: noSuchOperation\"}");
+            }));
+        
+        test("Gzip Only Responses Above The Threshold", () -> withGzipServer(100, url ->
+            fetch(url + "/fixed/99", true).equals("null:" + payload(99)) &&
+            fetch(url + "/fixed/100", true).equals("gzip:" + payload(100)) &&
+            fetch(url + "/fixed/5000", true).equals("gzip:" + payload(5000)) &&
+            fetch(url + "/fixed/5000", false).equals("null:" + payload(5000))));
+        
+        test("Gzip Streamed Responses Once They Pass It", () -> withGzipServer(100, url ->
+            fetch(url + "/streamed/0", true).equals("null:") &&
+            fetch(url + "/streamed/60", true).equals("null:" + payload(60)) &&
+            fetch(url + "/streamed/5000", true).equals("gzip:" + payload(5000)) &&
+            fetch(url + "/streamed/5000", false).equals("null:" + payload(5000))));
+    }
+    
+    // ==================== CLIENT LIBRARY TESTS ====================
+    
+    private static void runClientTests() {
+        printSection("CLIENT LIBRARIES");
+        
+        test("Async Calls Complete Their Futures", () -> inDataDirectory(dir -> {
+            StoreServerImpl store = openStore("QC", 9115, dir);
+            store.addItem("QCM1111", "QC8501", "AsyncItem", 10, 1.00);
+            try (AsyncStoreClient client = new AsyncStoreClient(store, 4)) {
+                List<CompletableFuture<String>> purchases = new ArrayList<>();
+                for (int i = 0; i < 10; i++) {
+                    purchases.add(client.purchaseItemAsync("QCU85" + (10 + i), "QC8501", 1, getCurrentDate()));
+                }
+                CompletableFuture.allOf(purchases.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+                String stock = client.listItemAvailabilityAsync("QCM1111")
+                                     .thenApply(listing -> itemLine(listing, "QC8501"))
+                                     .get(10, TimeUnit.SECONDS);
+                return purchases.stream().allMatch(p -> p.join().contains("successful")) &&
+                       stock.startsWith("QC8501 AsyncItem 0") &&
+                       store.getItem("QC8501").getQuantity() == 0;
+            }
+        }));
+        
+        test("Async Call Failure Completes Exceptionally", () -> {
+            ExecutorService workers = Executors.newFixedThreadPool(1);
+            try {
+                AsyncStoreClient client = new AsyncStoreClient(failingStore(new IllegalStateException("store offline")), workers);
+                CompletableFuture<String> found = client.findItemAsync("QCU1111", "Coffee");
+                Throwable cause = null;
+                try {
+                    found.get(10, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    cause = e.getCause();
+                }
+                client.close();
+                //The workers belong to the caller, so closing the client leaves them running
+                return found.isCompletedExceptionally() && cause instanceof IllegalStateException &&
+                       cause.getMessage().equals("store offline") && !workers.isShutdown();
+            } finally {
+                workers.shutdownNow();
+            }
+        });
+        
+        test("Route Calls By User ID Prefix", () -> {
+            StoreClient stores = new StoreClient();
+            String added = stores.addItem("ONM1111", "ON8601", "RoutedItem", 4, 2.00);
+            //A BC customer's purchase goes to BC, which buys the ON item from ON
+            String bought = stores.purchaseItem("BCU8601", "ON8601", 1, getCurrentDate());
+            return added.contains("successfully") && bought.contains("successful") &&
+                   itemLine(onServer.listItemAvailability("ONM1111"), "ON8601").startsWith("ON8601 RoutedItem 3") &&
+                   itemLine(qcServer.listItemAvailability("QCM1111"), "ON8601").isEmpty() &&
+                   stores.store("bc1001").getStorePrefix().equals("BC") &&
+                   stores.getStorePrefix().equals("QC,ON,BC");
+        });
+        
+        test("Reject IDs Of Stores The Client Does Not Know", () -> {
+            Map<String, String> addresses = new LinkedHashMap<>();
+            addresses.put("QC", client.StorePorts.addressOf("QC"));
+            StoreClient qcOnly = new StoreClient(addresses);
+            return qcOnly.getStorePrefix().equals("QC") && qcOnly.hasStore("QC") && !qcOnly.hasStore("ON") &&
+                   "No store for ID: ONU1111".equals(failureOf(() -> qcOnly.purchaseItem("ONU1111", "ON1001", 1, getCurrentDate()))) &&
+                   "No store for ID: X".equals(failureOf(() -> qcOnly.store("X")));
+        });
+    }
+    
+    //Runs a test in a fresh data directory; every store it opened with openStore is closed and the directory
+    //deleted afterwards
+    private static boolean inDataDirectory(DataDirectoryTest test) throws Exception {
+        Path dir = Files.createTempDirectory("dsms-recovery");
+        try {
+            return test.run(dir);
+        } finally {
+            for (StoreServerImpl store : openStores) {
+                store.close();
+            }
+            openStores.clear();
+            deleteDirectory(dir);
+        }
+    }
+    
+    private static StoreServerImpl openStore(String storePrefix, int udpPort, Path dir) {
+        StoreServerImpl store = new StoreServerImpl(storePrefix, udpPort, WriteAheadLog.Durability.PER_OP, dir);
+        openStores.add(store);
+        return store;
+    }
+    
+    private static void deleteDirectory(Path dir) throws Exception {
+        List<Path> paths = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.forEach(paths::add);
+        }
+        Collections.reverse(paths);
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
+        }
+    }
+    
+    //Sends one request to a store's UDP port and waits for its reply
+    private static UDPResponse udpCall(int port, UDPRequest request) throws Exception {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(5000);
+            byte[] data = request.toString().getBytes();
+            socket.send(new DatagramPacket(data, data.length, InetAddress.getByName("localhost"), port));
+            byte[] buffer = new byte[65536];
+            DatagramPacket reply = new DatagramPacket(buffer, buffer.length);
+            socket.receive(reply);
+            return UDPResponse.fromString(new String(reply.getData(), 0, reply.getLength()));
+        }
+    }
+    
+    //Writes the logs of a QC store that crashed in the middle of exchanging the customer's old purchase for a
+    //new one: the old purchase was made and the home side of the exchange applied, and the coordinator had
+    //logged BEGIN, or COMMITTING if decided
+    private static void crashDuringExchange(Path dir, String transactionID, Purchase oldPurchase, Purchase newPurchase,
+                                            boolean decided) throws Exception {
+        WriteAheadLog wal = new WriteAheadLog(dir.resolve("QC_wal"), WriteAheadLog.Durability.PER_OP);
+        wal.itemChanged(new Item("QC1001", "Coffee", 10, 5.99));
+        wal.purchaseAdded(oldPurchase);
+        wal.budgetChanged(oldPurchase.getCustomerID(), -599);
+        wal.atomically(() -> {
+            wal.budgetChanged(oldPurchase.getCustomerID(), -(399 - 599));
+            wal.purchaseRemoved(oldPurchase);
+            wal.exchangeOpened(transactionID);
+            return null;
+        });
+        
+        ExchangeCoordinatorLog exchangeLog = new ExchangeCoordinatorLog(dir.resolve("QC_exchange.log"));
+        exchangeLog.begin(transactionID, oldPurchase, newPurchase);
+        if (decided) {
+            exchangeLog.committing(transactionID, oldPurchase, newPurchase);
+        }
+        exchangeLog.close();
+        wal.close();
+    }
+    
+    private static boolean waitForLine(Path file, String line) throws Exception {
+        for (int i = 0; i < 100; i++) {
+            if (Files.exists(file) && Files.readAllLines(file).contains(line)) {
+                return true;
+            }
+            Thread.sleep(100);
+        }
+        return false;
+    }
+    
+    //Serves the store's JSON binding on a free port for the length of the test
+    private static boolean withJsonEndpoint(StoreServer store, HttpTest test) throws Exception {
+        int port = freePort();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        JsonHttpEndpoint endpoint = new JsonHttpEndpoint(store);
+        endpoint.start(port, executor);
+        try {
+            return test.run("http://localhost:" + port);
+        } finally {
+            endpoint.stop();
+            executor.shutdownNow();
+        }
+    }
+    
+    //Serves /fixed/<n> and /streamed/<n>, n bytes of payload sent with or without a length, through a GzipFilter
+    private static boolean withGzipServer(int threshold, HttpTest test) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        HttpContext context = server.createContext("/", exchange -> {
+            String[] path = exchange.getRequestURI().getPath().split("/");
+            byte[] body = payload(Integer.parseInt(path[2])).getBytes("UTF-8");
+            exchange.sendResponseHeaders(200, path[1].equals("streamed") ? 0 : body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (int i = 0; i < body.length; i += 10) {
+                    out.write(body, i, Math.min(10, body.length - i));
+                }
+            }
+        });
+        context.getFilters().add(new GzipFilter(threshold));
+        server.start();
+        try {
+            return test.run("http://localhost:" + server.getAddress().getPort());
+        } finally {
+            server.stop(0);
+        }
+    }
+    
+    private static String payload(int length) {
+        StringBuilder payload = new StringBuilder();
+        for (int i = 0; payload.length() < length; i++) {
+            payload.append("QC").append(1000 + i % 9000).append(" Item ").append(i).append('\n');
+        }
+        return payload.substring(0, length);
+    }
+    
+    //The response's Content-Encoding and its decoded body, e.g. "gzip:..." or "null:..."
+    private static String fetch(String url, boolean acceptGzip) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (acceptGzip) {
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+        }
+        InputStream in = connection.getInputStream();
+        String encoding = connection.getContentEncoding();
+        if ("gzip".equals(encoding)) {
+            in = new GZIPInputStream(in);
+        }
+        try (Scanner body = new Scanner(in, "UTF-8")) {
+            body.useDelimiter("\\A");
+            return encoding + ":" + (body.hasNext() ? body.next() : "");
+        }
+    }
+    
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+    
+    //A store whose every operation throws the given exception
+    private static StoreServer failingStore(RuntimeException failure) {
+        return (StoreServer) Proxy.newProxyInstance(StoreServer.class.getClassLoader(), new Class<?>[]{StoreServer.class},
+                                                    (proxy, method, args) -> { throw failure; });
+    }
+    
+    //The message of the exception the call threw, or null if it returned
+    private static String failureOf(Runnable call) {
+        try {
+            call.run();
+            return null;
+        } catch (RuntimeException e) {
+            return e.getMessage();
+        }
+    }
+    
     // ==================== UTILITY METHODS ====================
     
     private static void test(String testName, TestCase testCase) {
@@ -343,6 +928,16 @@ public class ComprehensiveTestRunner {
         }
     }
     
+    //The line of a listItemAvailability answer that describes the item, or "" if it is not listed
+    private static String itemLine(String listing, String itemID) {
+        for (String line : listing.split("\n")) {
+            if (line.startsWith(itemID + " ")) {
+                return line;
+            }
+        }
+        return "";
+    }
+    
     private static String getCurrentDate() {
         return new SimpleDateFormat("ddMMyyyy").format(new Date());
     }
@@ -357,4 +952,12 @@ public class ComprehensiveTestRunner {
     interface TestCase {
         boolean run() throws Exception;
     }
+    
+    interface DataDirectoryTest {
+        boolean run(Path dir) throws Exception;
+    }
+    
+    interface HttpTest {
+        boolean run(String baseUrl) throws Exception;
+    }
 }